@@ -32,6 +32,8 @@ import android.support.wearable.companion.WatchFaceCompanion;
 import android.util.Log;
 import android.view.View;
 import android.widget.Button;
+import android.widget.EditText;
+import android.widget.Switch;
 import android.widget.TextView;
 
 import com.google.android.gms.common.ConnectionResult;
@@ -53,11 +55,33 @@ public class WatchFaceCompanionConfigActivity extends Activity implements Google
     private static final String BATTERY_KEY = "com.example.key.battery";
     private static final String PATH_WITH_FEATURE = "/batteryPercentage";
 
+    // The config keys of the watch face, see WatchFaceUtil in the Wearable module.
+    private static final String KEY_IDLE_TIMEOUT_SECONDS = "IDLE_TIMEOUT_SECONDS";
+    private static final String KEY_SMOOTH_SECONDS = "SMOOTH_SECONDS";
+    private static final String KEY_FRAME_BUDGET_MS = "FRAME_BUDGET_MS";
+    private static final String KEY_RENDER_THREAD = "RENDER_THREAD";
+    private static final String KEY_STEP_COUNTER_SENSOR = "STEP_COUNTER_SENSOR";
+    private static final String KEY_GLYPH_ATLAS = "GLYPH_ATLAS";
+    private static final String KEY_AMBIENT_LIT_LIMIT_PERCENT = "AMBIENT_LIT_LIMIT_PERCENT";
+
+    // What the watch face uses while a key is not set.
+    private static final int DEFAULT_IDLE_TIMEOUT_SECONDS = 0;
+    private static final int DEFAULT_FRAME_BUDGET_MS = 12;
+    private static final int DEFAULT_AMBIENT_LIT_LIMIT_PERCENT = 10;
+
     private GoogleApiClient mGoogleApiClient;
     private String mPeerId;
     private boolean mRegisteredReceiver = false;
     private float mBatteryPercentage = 0;
 
+    private Switch mSmoothSecondsSwitch;
+    private Switch mGlyphAtlasSwitch;
+    private Switch mRenderThreadSwitch;
+    private Switch mStepCounterSensorSwitch;
+    private EditText mIdleTimeoutText;
+    private EditText mFrameBudgetText;
+    private EditText mAmbientLitLimitText;
+
     @Override
     protected void onCreate(Bundle savedInstanceState) {
         super.onCreate(savedInstanceState);
@@ -83,6 +107,23 @@ public class WatchFaceCompanionConfigActivity extends Activity implements Google
                 sendBatteryPercentage();
             }
         });
+
+        mSmoothSecondsSwitch = (Switch) findViewById(R.id.smooth_seconds);
+        mGlyphAtlasSwitch = (Switch) findViewById(R.id.glyph_atlas);
+        mRenderThreadSwitch = (Switch) findViewById(R.id.render_thread);
+        mStepCounterSensorSwitch = (Switch) findViewById(R.id.step_counter_sensor);
+        mIdleTimeoutText = (EditText) findViewById(R.id.idle_timeout_seconds);
+        mFrameBudgetText = (EditText) findViewById(R.id.frame_budget_ms);
+        mAmbientLitLimitText = (EditText) findViewById(R.id.ambient_lit_limit_percent);
+        setUpConfigViews(new DataMap());
+
+        Button sendConfigButton = (Button) findViewById(R.id.send_config);
+        sendConfigButton.setOnClickListener(new View.OnClickListener() {
+            @Override
+            public void onClick(View v) {
+                sendConfig();
+            }
+        });
     }
 
     @Override
@@ -169,6 +210,55 @@ public class WatchFaceCompanionConfigActivity extends Activity implements Google
         }
     }
 
+    /** Shows the values of {@code config}, or the watch face defaults for the missing keys. */
+    private void setUpConfigViews(DataMap config) {
+        mSmoothSecondsSwitch.setChecked(config.getBoolean(KEY_SMOOTH_SECONDS, false));
+        mGlyphAtlasSwitch.setChecked(config.getBoolean(KEY_GLYPH_ATLAS, true));
+        mRenderThreadSwitch.setChecked(config.getBoolean(KEY_RENDER_THREAD, false));
+        mStepCounterSensorSwitch.setChecked(config.getBoolean(KEY_STEP_COUNTER_SENSOR, false));
+        mIdleTimeoutText.setText(Integer.toString(
+                config.getInt(KEY_IDLE_TIMEOUT_SECONDS, DEFAULT_IDLE_TIMEOUT_SECONDS)));
+        mFrameBudgetText.setText(Integer.toString(
+                config.getInt(KEY_FRAME_BUDGET_MS, DEFAULT_FRAME_BUDGET_MS)));
+        mAmbientLitLimitText.setText(Integer.toString(
+                config.getInt(KEY_AMBIENT_LIT_LIMIT_PERCENT, DEFAULT_AMBIENT_LIT_LIMIT_PERCENT)));
+    }
+
+    /**
+     * Sends the config keys to the watch, whose WatchFaceConfigListenerService merges them into
+     * the config data item the watch face reads.
+     */
+    private void sendConfig() {
+        if (mPeerId == null) {
+            displayNoConnectedDeviceDialog();
+            return;
+        }
+        DataMap config = new DataMap();
+        config.putBoolean(KEY_SMOOTH_SECONDS, mSmoothSecondsSwitch.isChecked());
+        config.putBoolean(KEY_GLYPH_ATLAS, mGlyphAtlasSwitch.isChecked());
+        config.putBoolean(KEY_RENDER_THREAD, mRenderThreadSwitch.isChecked());
+        config.putBoolean(KEY_STEP_COUNTER_SENSOR, mStepCounterSensorSwitch.isChecked());
+        config.putInt(KEY_IDLE_TIMEOUT_SECONDS,
+                parseInt(mIdleTimeoutText, DEFAULT_IDLE_TIMEOUT_SECONDS));
+        config.putInt(KEY_FRAME_BUDGET_MS, parseInt(mFrameBudgetText, DEFAULT_FRAME_BUDGET_MS));
+        config.putInt(KEY_AMBIENT_LIT_LIMIT_PERCENT,
+                parseInt(mAmbientLitLimitText, DEFAULT_AMBIENT_LIT_LIMIT_PERCENT));
+        Wearable.MessageApi.sendMessage(mGoogleApiClient, mPeerId, PATH_WITH_FEATURE,
+                config.toByteArray());
+
+        if (Log.isLoggable(TAG, Log.DEBUG)) {
+            Log.d(TAG, "Sent watch face config message: " + config);
+        }
+    }
+
+    private static int parseInt(EditText text, int defaultValue) {
+        try {
+            return Integer.parseInt(text.getText().toString().trim());
+        } catch (NumberFormatException e) {
+            return defaultValue;
+        }
+    }
+
     @Override
     public void onConnected(Bundle connectionHint) {
 
@@ -218,6 +308,7 @@ public class WatchFaceCompanionConfigActivity extends Activity implements Google
             DataMapItem dataMapItem = DataMapItem.fromDataItem(configDataItem);
             DataMap config = dataMapItem.getDataMap();
             Log.i(TAG, config.toString());
+            setUpConfigViews(config);
         } else {
             // If DataItem with the current config can't be retrieved, select the default items on
             // each picker.
@@ -0,0 +1,94 @@
+/*
+ * Copyright (C) 2014 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.example.android.wearable.watchface;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import java.util.Locale;
+
+/**
+ * Compares the {@link String#format} based text of the original onDraw with the
+ * {@link CharFormatter} char buffers that replaced it.
+ */
+@State(Scope.Thread)
+public class FormattingBenchmark {
+
+    private static final String STEPS_FORMAT = "%1$d Passos";
+    private static final String BATTERY_FORMAT = "Bateria %1$,.0f";
+    private static final String BATTERY_SUFFIX = "% (Relógio)";
+
+    private final char[] mBuffer = new char[64];
+    private CharFormatter.Template mStepsTemplate;
+    private CharFormatter.Template mBatteryTemplate;
+
+    private int mCounter;
+
+    @Setup
+    public void setUp() {
+        Locale.setDefault(new Locale("pt", "BR"));
+        mStepsTemplate = new CharFormatter.Template(STEPS_FORMAT, "");
+        mBatteryTemplate = new CharFormatter.Template(BATTERY_FORMAT, BATTERY_SUFFIX);
+    }
+
+    private int next() {
+        return mCounter++ & 0x3fff;
+    }
+
+    @Benchmark
+    public String twoDigitsStringFormat() {
+        return String.format("%02d", next() % 60);
+    }
+
+    @Benchmark
+    public int twoDigitsChars() {
+        return CharFormatter.appendTwoDigits(mBuffer, 0, next() % 60) + mBuffer[1];
+    }
+
+    @Benchmark
+    public String hourStringValueOf() {
+        int hour = next() % 12;
+        return String.valueOf(hour == 0 ? 12 : hour);
+    }
+
+    @Benchmark
+    public int hourChars() {
+        return CharFormatter.appendHour(mBuffer, 0, next() % 24, false) + mBuffer[0];
+    }
+
+    @Benchmark
+    public String stepsStringFormat() {
+        return String.format(STEPS_FORMAT, next());
+    }
+
+    @Benchmark
+    public int stepsTemplate() {
+        return mStepsTemplate.formatInt(mBuffer, next()) + mBuffer[0];
+    }
+
+    @Benchmark
+    public String batteryStringFormat() {
+        return String.format(BATTERY_FORMAT, (float) (next() % 101)) + BATTERY_SUFFIX;
+    }
+
+    @Benchmark
+    public int batteryTemplate() {
+        return mBatteryTemplate.formatRounded(mBuffer, (float) (next() % 101)) + mBuffer[8];
+    }
+}
@@ -0,0 +1,77 @@
+/*
+ * Copyright (C) 2014 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.example.android.wearable.watchface;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import java.util.Calendar;
+import java.util.TimeZone;
+
+/**
+ * Compares ways of turning the current time into the fields one frame renders. Every invocation
+ * advances the clock by one second, like the interactive tick.
+ */
+@State(Scope.Thread)
+public class TimeDecompositionBenchmark {
+
+    private Calendar mCalendar;
+    private TimeDecomposer mDecomposer;
+    private final TimeFields mTime = new TimeFields();
+    private long mNow;
+
+    @Setup
+    public void setUp() {
+        TimeZone timeZone = TimeZone.getTimeZone("America/Sao_Paulo");
+        mCalendar = Calendar.getInstance(timeZone);
+        mDecomposer = new TimeDecomposer(timeZone);
+        mNow = 1466000000000L;
+    }
+
+    /** What onDraw did originally: one Calendar.get per field, each time it is needed. */
+    @Benchmark
+    public int calendarPerField() {
+        mNow += 1000;
+        mCalendar.setTimeInMillis(mNow);
+        return mCalendar.get(Calendar.HOUR_OF_DAY)
+                + mCalendar.get(Calendar.HOUR)
+                + mCalendar.get(Calendar.MINUTE)
+                + mCalendar.get(Calendar.SECOND)
+                + mCalendar.get(Calendar.AM_PM)
+                + mCalendar.get(Calendar.YEAR)
+                + mCalendar.get(Calendar.DAY_OF_YEAR);
+    }
+
+    /** Calendar-backed {@link TimeFields}, decomposed once per frame. */
+    @Benchmark
+    public long calendarTimeFields() {
+        mNow += 1000;
+        mCalendar.setTimeInMillis(mNow);
+        mTime.setFromCalendar(mCalendar, mNow);
+        return mTime.hourOfDay + mTime.minute + mTime.second + mTime.dayKey;
+    }
+
+    /** Integer decomposition against a cached zone offset, as onDraw does now. */
+    @Benchmark
+    public long decomposerTimeFields() {
+        mNow += 1000;
+        mDecomposer.decompose(mNow, mTime);
+        return mTime.hourOfDay + mTime.minute + mTime.second + mTime.dayKey;
+    }
+}
@@ -0,0 +1,92 @@
+/*
+ * Copyright (C) 2014 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.example.android.wearable.watchface;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+/**
+ * Per-tick cost of the time line and the secondary line logic, through a {@link TextCanvas} that
+ * does not rasterize. Every invocation is one interactive tick, one second after the previous.
+ */
+@State(Scope.Thread)
+public class TimeLineBenchmark {
+
+    private final CountingTextCanvas mCanvas = new CountingTextCanvas();
+    private final TimeLine mTimeLine = new TimeLine();
+    private final TimeFields mTime = new TimeFields();
+    private final FaceLayout mLayout = new FaceLayout();
+
+    private long mSeconds;
+    private float mSecondsX;
+
+    @Setup
+    public void setUp() {
+        mTimeLine.setPosition(25, 80);
+        mLayout.setTimeLine(25, 80);
+        mLayout.setLines(30, 25);
+        mLayout.setLineMetrics(-19, 5);
+        mLayout.setSurfaceSize(320, 320);
+        mLayout.compute();
+        mSeconds = 12 * 3600 + 59 * 60;
+    }
+
+    private void tick() {
+        mSeconds++;
+        mTime.second = (int) (mSeconds % 60);
+        mTime.minute = (int) (mSeconds / 60 % 60);
+        mTime.hourOfDay = (int) (mSeconds / 3600 % 24);
+    }
+
+    /** Every tick redraws the whole time line, as before the layer cache. */
+    @Benchmark
+    public int fullTimeLinePerTick() {
+        tick();
+        float x = mTimeLine.drawHoursAndMinutes(mCanvas, mTime, false);
+        mTimeLine.drawSeconds(mCanvas, mTime, x);
+        return mCanvas.checksum;
+    }
+
+    /** Hours and minutes are only redrawn when the minute changes; ticks draw the seconds. */
+    @Benchmark
+    public int secondsOnlyPerTick() {
+        tick();
+        if (mTime.second == 0 || mSecondsX == 0) {
+            mSecondsX = mTimeLine.drawHoursAndMinutes(mCanvas, mTime, false);
+        }
+        mTimeLine.drawSeconds(mCanvas, mTime, mSecondsX);
+        return mCanvas.checksum;
+    }
+
+    /**
+     * Battery colour selection and secondary line positions, as done per minute-layer build. The
+     * positions come from the layout computed in setUp, as they do on the watch.
+     */
+    @Benchmark
+    public float batteryColorAndLayout() {
+        tick();
+        float percentage = mSeconds % 101;
+        int color = BatteryLevel.selectColor(percentage, 1, 2, 3);
+        return color
+                + mLayout.getLineBaseline(FaceLayout.LINE_STEPS)
+                + mLayout.getLineBaseline(FaceLayout.LINE_DATE)
+                + mLayout.getLineBaseline(FaceLayout.LINE_BATTERY)
+                + mLayout.getLineBaseline(FaceLayout.LINE_BATTERY_DEVICE);
+    }
+}
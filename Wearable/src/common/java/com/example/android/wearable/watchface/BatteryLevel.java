@@ -0,0 +1,40 @@
+/*
+ * Copyright (C) 2014 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.example.android.wearable.watchface;
+
+/**
+ * Maps a battery percentage to the colour it is displayed in.
+ */
+final class BatteryLevel {
+
+    /** At or above this percentage the battery is shown as high. */
+    static final float HIGH_THRESHOLD = 75;
+
+    /** At or below this percentage the battery is shown as low. */
+    static final float LOW_THRESHOLD = 25;
+
+    static int selectColor(float percentage, int highColor, int mediumColor, int lowColor) {
+        if (percentage >= HIGH_THRESHOLD) {
+            return highColor;
+        } else if (percentage <= LOW_THRESHOLD) {
+            return lowColor;
+        }
+        return mediumColor;
+    }
+
+    private BatteryLevel() { }
+}
@@ -0,0 +1,241 @@
+/*
+ * Copyright (C) 2014 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.example.android.wearable.watchface;
+
+import java.text.DecimalFormatSymbols;
+
+/**
+ * Allocation-free replacements for the {@link String#format} calls of the watch face. Every
+ * method writes into a caller-owned {@code char[]} and returns the position right after the last
+ * written char, so calls can be chained.
+ */
+final class CharFormatter {
+
+    /** Enough room for any int, including the sign. */
+    static final int MAX_INT_CHARS = 11;
+
+    /** Enough room for any int with grouping separators, including the sign. */
+    static final int MAX_GROUPED_INT_CHARS = MAX_INT_CHARS + 3;
+
+    /**
+     * Writes {@code value} as exactly two digits, zero padded. Equivalent to
+     * {@code String.format("%02d", value)} for values in [0, 99].
+     */
+    static int appendTwoDigits(char[] buffer, int pos, int value) {
+        buffer[pos] = (char) ('0' + value / 10);
+        buffer[pos + 1] = (char) ('0' + value % 10);
+        return pos + 2;
+    }
+
+    /**
+     * Writes the hour of {@code hourOfDay} (0-23): zero padded in 24-hour mode, 1-12 otherwise.
+     */
+    static int appendHour(char[] buffer, int pos, int hourOfDay, boolean is24Hour) {
+        if (is24Hour) {
+            return appendTwoDigits(buffer, pos, hourOfDay);
+        }
+        int hour = hourOfDay % 12;
+        return appendInt(buffer, pos, hour == 0 ? 12 : hour);
+    }
+
+    /** Writes {@code value} in decimal without grouping. Equivalent to {@code "%d"}. */
+    static int appendInt(char[] buffer, int pos, int value) {
+        if (value == Integer.MIN_VALUE) {
+            // Cannot be negated, write it digit by digit from the long value instead.
+            return appendLong(buffer, pos, value);
+        }
+        if (value < 0) {
+            buffer[pos++] = '-';
+            value = -value;
+        }
+        int end = pos + digitCount(value);
+        int i = end;
+        do {
+            buffer[--i] = (char) ('0' + value % 10);
+            value /= 10;
+        } while (value != 0);
+        return end;
+    }
+
+    /**
+     * Writes {@code value} in decimal with {@code separator} between groups of three digits.
+     * Equivalent to {@code "%,d"} in a locale whose grouping separator is {@code separator}.
+     */
+    static int appendGroupedInt(char[] buffer, int pos, int value, char separator) {
+        long magnitude = value;
+        if (magnitude < 0) {
+            buffer[pos++] = '-';
+            magnitude = -magnitude;
+        }
+        int digits = 1;
+        for (long rest = magnitude / 10; rest != 0; rest /= 10) {
+            digits++;
+        }
+        int end = pos + digits + (digits - 1) / 3;
+        int i = end;
+        int written = 0;
+        do {
+            if (written > 0 && written % 3 == 0) {
+                buffer[--i] = separator;
+            }
+            buffer[--i] = (char) ('0' + magnitude % 10);
+            magnitude /= 10;
+            written++;
+        } while (magnitude != 0);
+        return end;
+    }
+
+    /**
+     * Writes {@code value} rounded half-up to an integer. Equivalent to {@code "%.0f"} for the
+     * non-negative values the watch face deals with.
+     */
+    static int appendRounded(char[] buffer, int pos, float value) {
+        return appendInt(buffer, pos, Math.round(value));
+    }
+
+    /** Copies all of {@code chars} to {@code buffer}. */
+    static int append(char[] buffer, int pos, char[] chars) {
+        System.arraycopy(chars, 0, buffer, pos, chars.length);
+        return pos + chars.length;
+    }
+
+    private static int appendLong(char[] buffer, int pos, long value) {
+        if (value < 0) {
+            buffer[pos++] = '-';
+            value = -value;
+        }
+        int start = pos;
+        do {
+            buffer[pos++] = (char) ('0' + value % 10);
+            value /= 10;
+        } while (value != 0);
+        // Digits were written least significant first.
+        for (int i = start, j = pos - 1; i < j; i++, j--) {
+            char tmp = buffer[i];
+            buffer[i] = buffer[j];
+            buffer[j] = tmp;
+        }
+        return pos;
+    }
+
+    private static int digitCount(int value) {
+        int count = 1;
+        while (value >= 10) {
+            value /= 10;
+            count++;
+        }
+        return count;
+    }
+
+    /**
+     * A localized string resource with a single numeric placeholder (e.g. {@code "%1$d Passos"}),
+     * split once into the chars before and after the placeholder so that it can be rendered
+     * into a {@code char[]} without going through {@link String#format}.
+     * <p>
+     * Only the placeholders the watch face uses are supported: an optional argument index, the
+     * {@code ,} grouping flag, and either {@code d} or {@code f} with a precision of zero, as in
+     * {@code "%1$,.0f"}. Anything else, such as a width or another flag, is rejected when the
+     * template is created rather than silently rendered differently from the resource.
+     */
+    static final class Template {
+
+        private final char[] mPrefix;
+        private final char[] mSuffix;
+        private final boolean mGrouping;
+        private final char mGroupingSeparator;
+
+        /**
+         * @param format a format string with exactly one {@code %} conversion, like the ones
+         *               returned by {@code Resources.getString(int)} for {@code fit_steps}
+         * @param extraSuffix appended after the format's own suffix
+         */
+        Template(String format, String extraSuffix) {
+            this(format, extraSuffix, DecimalFormatSymbols.getInstance().getGroupingSeparator());
+        }
+
+        /** As above, with the grouping separator given rather than the default locale's. */
+        Template(String format, String extraSuffix, char groupingSeparator) {
+            int start = format.indexOf('%');
+            if (start < 0) {
+                throw new IllegalArgumentException("No placeholder in: " + format);
+            }
+            int length = format.length();
+            int pos = start + 1;
+
+            // Optional argument index, e.g. "1$".
+            int indexEnd = pos;
+            while (indexEnd < length && Character.isDigit(format.charAt(indexEnd))) {
+                indexEnd++;
+            }
+            if (indexEnd > pos && indexEnd < length && format.charAt(indexEnd) == '$') {
+                pos = indexEnd + 1;
+            }
+
+            boolean grouping = false;
+            if (pos < length && format.charAt(pos) == ',') {
+                grouping = true;
+                pos++;
+            }
+
+            String precision = null;
+            if (pos < length && format.charAt(pos) == '.') {
+                int precisionStart = ++pos;
+                while (pos < length && Character.isDigit(format.charAt(pos))) {
+                    pos++;
+                }
+                precision = format.substring(precisionStart, pos);
+            }
+
+            char conversion = pos < length ? format.charAt(pos) : 0;
+            boolean supported = conversion == 'd'
+                    ? precision == null
+                    : conversion == 'f' && "0".equals(precision);
+            if (!supported) {
+                throw new IllegalArgumentException("Unsupported placeholder in: " + format);
+            }
+            String suffix = format.substring(pos + 1);
+            if (suffix.indexOf('%') >= 0) {
+                throw new IllegalArgumentException("More than one placeholder in: " + format);
+            }
+
+            mPrefix = format.substring(0, start).toCharArray();
+            mSuffix = (suffix + extraSuffix).toCharArray();
+            mGrouping = grouping;
+            mGroupingSeparator = groupingSeparator;
+        }
+
+        /** Returns the number of chars needed to render any int value. */
+        int maxLength() {
+            return mPrefix.length + (mGrouping ? MAX_GROUPED_INT_CHARS : MAX_INT_CHARS)
+                    + mSuffix.length;
+        }
+
+        int formatInt(char[] buffer, int value) {
+            int pos = append(buffer, 0, mPrefix);
+            pos = mGrouping
+                    ? appendGroupedInt(buffer, pos, value, mGroupingSeparator)
+                    : appendInt(buffer, pos, value);
+            return append(buffer, pos, mSuffix);
+        }
+
+        int formatRounded(char[] buffer, float value) {
+            return formatInt(buffer, Math.round(value));
+        }
+    }
+
+    private CharFormatter() { }
+}
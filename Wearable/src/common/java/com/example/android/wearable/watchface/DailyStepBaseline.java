@@ -0,0 +1,170 @@
+/*
+ * Copyright (C) 2014 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.example.android.wearable.watchface;
+
+
+import java.util.TimeZone;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Turns the readings of a step counter that counts from boot into a step total for the current
+ * local day.
+ * <p>
+ * The counter restarts at zero on every reboot, so the total is kept as an offset, the steps
+ * counted today before the current boot, plus how far the counter moved past its value at the
+ * start of the day (or at boot, whichever is later). A reboot shows up as the counter going
+ * backwards. A different boot time alone is no proof of one, since the boot time is derived
+ * from the wall clock, which the user or a time sync may move: the count then just carries on
+ * from the current counter value. The fields are plain values, so that they can be persisted
+ * and {@link #restore restored} across process deaths and reboots.
+ */
+final class DailyStepBaseline {
+
+    /** How far apart two boot time estimates may be and still name the same boot. */
+    static final long BOOT_TOLERANCE_MS = TimeUnit.MINUTES.toMillis(1);
+
+    /** Marks that no counter value has been seen yet. */
+    static final long NO_COUNTER = -1;
+
+    private long mDayKey = Long.MIN_VALUE;
+    private long mBootMs;
+    private long mCounterBase;
+    private int mOffset;
+    private long mLastCounter = NO_COUNTER;
+
+    /** Returns the day key of the local day {@code wallMs} falls in, in the given time zone. */
+    static long dayKey(long wallMs, TimeZone timeZone) {
+        return TimeUnit.MILLISECONDS.toDays(wallMs + timeZone.getOffset(wallMs));
+    }
+
+    /**
+     * Records a counter reading.
+     *
+     * @param counter the steps counted since boot
+     * @param dayKey the {@link #dayKey day} the reading was taken on
+     * @param bootMs the wall time of the boot the counter counts from
+     * @return whether the total of the day changed
+     */
+    boolean onCounter(long counter, long dayKey, long bootMs) {
+        long previousDay = mDayKey;
+        int previousSteps = getSteps();
+
+        if (mLastCounter == NO_COUNTER) {
+            // What the counter holds from before the first reading cannot be split into days;
+            // reconciliation fills that in.
+            mCounterBase = counter;
+            if (dayKey != mDayKey) {
+                mOffset = 0;
+            }
+        } else {
+            boolean rebooted = counter < mLastCounter;
+            boolean bootMoved = !rebooted && Math.abs(bootMs - mBootMs) > BOOT_TOLERANCE_MS;
+            if (!rebooted && !bootMoved && dayKey < mDayKey) {
+                // A batched reading from before midnight, delivered after the new day was
+                // started: its steps belong to the previous day.
+                mCounterBase += counter - mLastCounter;
+                mLastCounter = counter;
+                return false;
+            }
+            if (rebooted) {
+                // The steps of the previous boot stay in the offset.
+                mOffset = previousSteps;
+                mCounterBase = 0;
+            } else if (bootMoved) {
+                // The wall clock moved, or a reboot already counted past the last reading. The
+                // two cannot be told apart, so nothing since the last reading is counted rather
+                // than possibly the whole counter twice.
+                mOffset = previousSteps;
+                mCounterBase = counter;
+            }
+            if (dayKey != mDayKey) {
+                // Steps between the last reading and midnight end up in the new day.
+                mOffset = 0;
+                if (!rebooted && !bootMoved) {
+                    mCounterBase = mLastCounter;
+                }
+            }
+        }
+        mDayKey = dayKey;
+        mBootMs = bootMs;
+        mLastCounter = counter;
+        return mDayKey != previousDay || getSteps() != previousSteps;
+    }
+
+    /**
+     * Raises the total of {@code dayKey} to {@code total} if it is higher, for steps the counter
+     * missed, such as those before the first reading.
+     *
+     * @return whether the total of the day changed
+     */
+    boolean reconcile(int total, long dayKey) {
+        if (dayKey != mDayKey) {
+            // Nothing counted for that day yet: start it where the counter is now.
+            mDayKey = dayKey;
+            mOffset = total;
+            mCounterBase = mLastCounter == NO_COUNTER ? 0 : mLastCounter;
+            return true;
+        }
+        int steps = getSteps();
+        if (total <= steps) {
+            return false;
+        }
+        mOffset += total - steps;
+        return true;
+    }
+
+    /** Returns the step total of {@code dayKey}, zero if nothing was counted on that day. */
+    int getSteps(long dayKey) {
+        return dayKey == mDayKey ? getSteps() : 0;
+    }
+
+    private int getSteps() {
+        if (mLastCounter == NO_COUNTER) {
+            return mOffset;
+        }
+        return mOffset + (int) (mLastCounter - mCounterBase);
+    }
+
+    long getDayKey() {
+        return mDayKey;
+    }
+
+    long getBootMs() {
+        return mBootMs;
+    }
+
+    long getCounterBase() {
+        return mCounterBase;
+    }
+
+    int getOffset() {
+        return mOffset;
+    }
+
+    long getLastCounter() {
+        return mLastCounter;
+    }
+
+    /** Restores the values of the getters above, as persisted earlier. */
+    void restore(long dayKey, long bootMs, long counterBase, int offset, long lastCounter) {
+        mDayKey = dayKey;
+        mBootMs = bootMs;
+        mCounterBase = counterBase;
+        mOffset = offset;
+        mLastCounter = lastCounter;
+    }
+}
@@ -0,0 +1,235 @@
+/*
+ * Copyright (C) 2014 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.example.android.wearable.watchface;
+
+/**
+ * Positions of the lines of the watch face. The time line sits at {@link #getTimeBaseline()};
+ * the secondary lines are stacked below it, one line height apart.
+ * <p>
+ * The positions are only worked out in {@link #compute()}, which the engine calls when an input
+ * changes: the insets, the surface size, the peek card or which lines have content. Frames just
+ * read the results. Lines without content, such as a metric that was not read yet, take no
+ * room: the lines after them move up. When the lines do not fit above a peeking card they are
+ * reflowed rather than hidden: first stacked closer together, down to the text height, then
+ * split into two columns. Only lines that still do not fit are dropped, last line first.
+ */
+final class FaceLayout {
+
+    static final int LINE_STEPS = 1;
+    static final int LINE_DATE = 2;
+    static final int LINE_BATTERY = 3;
+    static final int LINE_BATTERY_DEVICE = 4;
+    static final int LINE_DISTANCE = 5;
+    static final int LINE_CALORIES = 6;
+    static final int LINE_ACTIVITY = 7;
+
+    private static final int FIRST_LINE = LINE_STEPS;
+    private static final int LAST_LINE = LINE_ACTIVITY;
+    private static final int MAX_COLUMNS = 2;
+
+    /** Passed to {@link #setPeekCardTop(float)} while no card is peeking. */
+    static final float NO_PEEK_CARD = Float.POSITIVE_INFINITY;
+
+    // Inputs.
+    private float mTimeX;
+    private float mLinesX;
+    private float mYOffset;
+    private float mLineHeight;
+    private float mLineAscent;
+    private float mLineDescent;
+    private int mSurfaceWidth;
+    private int mSurfaceHeight;
+    private float mPeekCardTop = NO_PEEK_CARD;
+    private final boolean[] mHasContent = new boolean[LAST_LINE + 1];
+
+    // Results of compute(), indexed by line.
+    private final boolean[] mVisible = new boolean[LAST_LINE + 1];
+    private final float[] mX = new float[LAST_LINE + 1];
+    private final float[] mBaseline = new float[LAST_LINE + 1];
+    private final float[] mClipLeft = new float[LAST_LINE + 1];
+    private final float[] mClipTop = new float[LAST_LINE + 1];
+    private final float[] mClipRight = new float[LAST_LINE + 1];
+    private final float[] mClipBottom = new float[LAST_LINE + 1];
+    private int mVisibleCount;
+    private int mColumns;
+    private float mPitch;
+    private int mComputeCount;
+
+    FaceLayout() {
+        for (int line = FIRST_LINE; line <= LAST_LINE; line++) {
+            mHasContent[line] = true;
+        }
+    }
+
+    void setTimeLine(float x, float baseline) {
+        mTimeX = x;
+        mYOffset = baseline;
+    }
+
+    void setLines(float x, float lineHeight) {
+        mLinesX = x;
+        mLineHeight = lineHeight;
+    }
+
+    /**
+     * Sets the vertical extent of the secondary line text around its baseline, as font metrics
+     * do: {@code ascent} is negative, {@code descent} positive.
+     */
+    void setLineMetrics(float ascent, float descent) {
+        mLineAscent = ascent;
+        mLineDescent = descent;
+    }
+
+    /** Sets the surface size; 0 leaves the lines unbounded. */
+    void setSurfaceSize(int width, int height) {
+        mSurfaceWidth = width;
+        mSurfaceHeight = height;
+    }
+
+    /** Sets the top edge of the peeking card, or {@link #NO_PEEK_CARD}. */
+    void setPeekCardTop(float top) {
+        mPeekCardTop = top;
+    }
+
+    /**
+     * Sets whether {@code line}, one of the LINE_ constants, has anything to show. Lines have
+     * content until told otherwise.
+     *
+     * @return whether that changed, and the layout needs to be computed again
+     */
+    boolean setLineHasContent(int line, boolean hasContent) {
+        if (mHasContent[line] == hasContent) {
+            return false;
+        }
+        mHasContent[line] = hasContent;
+        return true;
+    }
+
+    /** Works out the line positions from the inputs. */
+    void compute() {
+        mComputeCount++;
+        float limit = mPeekCardTop;
+        if (mSurfaceHeight > 0) {
+            limit = Math.min(limit, mSurfaceHeight);
+        }
+        // The lowest baseline whose descent still fits, and how close lines may get.
+        float room = limit - mLineDescent - mYOffset;
+        float minPitch = Math.max(mLineDescent - mLineAscent, 1);
+
+        int present = 0;
+        for (int line = FIRST_LINE; line <= LAST_LINE; line++) {
+            if (mHasContent[line]) {
+                present++;
+            }
+        }
+        int visible = present;
+        int columns = 1;
+        float pitch = mLineHeight;
+        search:
+        for (; visible > 0; visible--) {
+            for (columns = 1; columns <= MAX_COLUMNS; columns++) {
+                int rows = (visible + columns - 1) / columns;
+                float fitPitch = room / rows;
+                if (fitPitch >= Math.min(minPitch, mLineHeight)) {
+                    pitch = Math.min(mLineHeight, fitPitch);
+                    break search;
+                }
+            }
+        }
+        if (visible == 0) {
+            columns = 1;
+        }
+
+        float columnWidth = mSurfaceWidth > 0 ? (mSurfaceWidth - mLinesX) / columns : 0;
+        int index = 0;
+        for (int line = FIRST_LINE; line <= LAST_LINE; line++) {
+            if (!mHasContent[line]) {
+                mVisible[line] = false;
+                continue;
+            }
+            mVisible[line] = index < visible;
+            int row = index / columns;
+            int column = index % columns;
+            mX[line] = mLinesX + column * columnWidth;
+            mBaseline[line] = mYOffset + pitch * (row + 1);
+            mClipLeft[line] = mX[line];
+            mClipRight[line] = mSurfaceWidth > 0 ? mX[line] + columnWidth : Float.MAX_VALUE;
+            mClipTop[line] = mBaseline[line] + mLineAscent;
+            mClipBottom[line] = mBaseline[line] + mLineDescent;
+            index++;
+        }
+        mVisibleCount = visible;
+        mColumns = columns;
+        mPitch = pitch;
+    }
+
+    float getTimeX() {
+        return mTimeX;
+    }
+
+    float getTimeBaseline() {
+        return mYOffset;
+    }
+
+    /** Returns whether the secondary line {@code line}, one of the LINE_ constants, fits. */
+    boolean isLineVisible(int line) {
+        return mVisible[line];
+    }
+
+    float getLineX(int line) {
+        return mX[line];
+    }
+
+    /** Returns the baseline of the secondary line {@code line}, one of the LINE_ constants. */
+    float getLineBaseline(int line) {
+        return mBaseline[line];
+    }
+
+    /** The clip bounds of {@code line}, which keep long text out of the next column. */
+    float getLineClipLeft(int line) {
+        return mClipLeft[line];
+    }
+
+    float getLineClipTop(int line) {
+        return mClipTop[line];
+    }
+
+    float getLineClipRight(int line) {
+        return mClipRight[line];
+    }
+
+    float getLineClipBottom(int line) {
+        return mClipBottom[line];
+    }
+
+    int getVisibleLineCount() {
+        return mVisibleCount;
+    }
+
+    int getColumns() {
+        return mColumns;
+    }
+
+    float getLinePitch() {
+        return mPitch;
+    }
+
+    /** Returns how many times the layout was computed, i.e. how often its inputs changed. */
+    int getComputeCount() {
+        return mComputeCount;
+    }
+}
@@ -0,0 +1,132 @@
+/*
+ * Copyright (C) 2014 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.example.android.wearable.watchface;
+
+
+import java.io.PrintWriter;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Decides how often the step total is refreshed.
+ * <p>
+ * The base interval is a minute. Every refresh that comes back with the same total as the one
+ * before doubles it, up to {@link #MAX_BACKOFF_INTERVAL_MS}; a changed total resets it. In
+ * ambient mode the interval is at least {@link #AMBIENT_INTERVAL_MS}, and during the sleep hours
+ * at least {@link #SLEEP_INTERVAL_MS}. Leaving ambient mode asks for an immediate refresh, so the
+ * total is current when the user looks.
+ * <p>
+ * Refreshes closer together than {@link #MIN_GAP_MS} are dropped, which folds the eager,
+ * connection and scheduled refreshes into one query, and a refresh the step source refuses,
+ * because one is still in flight or it is not connected, is counted as skipped.
+ */
+final class StepPollingPolicy {
+
+    static final long BASE_INTERVAL_MS = TimeUnit.MINUTES.toMillis(1);
+    /** How many times unchanged totals may double the interval. */
+    static final int MAX_BACKOFF_DOUBLINGS = 4;
+    static final long MAX_BACKOFF_INTERVAL_MS = BASE_INTERVAL_MS << MAX_BACKOFF_DOUBLINGS;
+    static final long AMBIENT_INTERVAL_MS = TimeUnit.MINUTES.toMillis(5);
+    static final long SLEEP_INTERVAL_MS = TimeUnit.MINUTES.toMillis(30);
+    static final long MIN_GAP_MS = TimeUnit.SECONDS.toMillis(20);
+
+    /** The sleep hours, in local hours of the day: from the start hour up to the end hour. */
+    static final int SLEEP_START_HOUR = 23;
+    static final int SLEEP_END_HOUR = 7;
+
+    private boolean mAmbient;
+    private int mLastSteps = -1;
+    private int mUnchangedCount;
+    private long mLastIssuedMs;
+    private long mIntervalMs = BASE_INTERVAL_MS;
+
+    private long mIssuedCount;
+    private long mSkippedCount;
+
+    void setAmbient(boolean ambient) {
+        mAmbient = ambient;
+    }
+
+    /**
+     * Returns whether a refresh may be issued at {@code nowMs}, counting it as skipped if not.
+     * Call {@link #recordRefresh} with the outcome when it may.
+     */
+    boolean shouldRefresh(long nowMs) {
+        if (nowMs - mLastIssuedMs < MIN_GAP_MS) {
+            mSkippedCount++;
+            return false;
+        }
+        return true;
+    }
+
+    /** Records whether the step source actually issued the refresh allowed at {@code nowMs}. */
+    void recordRefresh(long nowMs, boolean issued) {
+        if (issued) {
+            mIssuedCount++;
+            mLastIssuedMs = nowMs;
+        } else {
+            mSkippedCount++;
+        }
+    }
+
+    /** Records a total reported by the step source. */
+    void recordSteps(int steps) {
+        if (steps == mLastSteps) {
+            mUnchangedCount++;
+        } else {
+            mUnchangedCount = 0;
+            mLastSteps = steps;
+        }
+    }
+
+    /** Returns how long to wait for the next refresh, at local hour {@code hourOfDay}. */
+    long getIntervalMs(int hourOfDay) {
+        long interval = BASE_INTERVAL_MS << Math.min(mUnchangedCount, MAX_BACKOFF_DOUBLINGS);
+        if (mAmbient) {
+            interval = Math.max(interval, AMBIENT_INTERVAL_MS);
+        }
+        if (isSleepHour(hourOfDay)) {
+            interval = Math.max(interval, SLEEP_INTERVAL_MS);
+        }
+        mIntervalMs = interval;
+        return interval;
+    }
+
+    static boolean isSleepHour(int hourOfDay) {
+        return hourOfDay >= SLEEP_START_HOUR || hourOfDay < SLEEP_END_HOUR;
+    }
+
+    long getIssuedCount() {
+        return mIssuedCount;
+    }
+
+    long getSkippedCount() {
+        return mSkippedCount;
+    }
+
+    void dump(PrintWriter writer, String prefix) {
+        writer.print(prefix);
+        writer.print("step polling: issued=");
+        writer.print(mIssuedCount);
+        writer.print(" skipped=");
+        writer.print(mSkippedCount);
+        writer.print(" unchanged=");
+        writer.print(mUnchangedCount);
+        writer.print(" interval=");
+        writer.print(TimeUnit.MILLISECONDS.toSeconds(mIntervalMs));
+        writer.println("s");
+    }
+}
@@ -0,0 +1,36 @@
+/*
+ * Copyright (C) 2014 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.example.android.wearable.watchface;
+
+/**
+ * The small part of a canvas and its paints that the time line needs. It keeps the layout and
+ * formatting code free of Android types, so it can be benchmarked on a desktop JVM.
+ */
+interface TextCanvas {
+
+    int STYLE_HOUR = 0;
+    int STYLE_MINUTE = 1;
+    int STYLE_SECOND = 2;
+    int STYLE_COLON = 3;
+    int STYLE_COUNT = 4;
+
+    /** Draws {@code count} chars of {@code text} with their baseline at {@code y}. */
+    void drawText(char[] text, int start, int count, float x, float y, int style);
+
+    /** Returns the advance of {@code count} chars of {@code text} in the given style. */
+    float measureText(char[] text, int start, int count, int style);
+}
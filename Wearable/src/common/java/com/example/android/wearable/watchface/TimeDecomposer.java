@@ -0,0 +1,117 @@
+/*
+ * Copyright (C) 2014 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.example.android.wearable.watchface;
+
+import java.util.TimeZone;
+
+/**
+ * Turns epoch millis into {@link TimeFields} with plain integer arithmetic.
+ * <p>
+ * The zone offset is looked up once and cached together with the instant of the next offset
+ * change (DST transition) within the next day. Until then, and until {@link #setTimeZone} is
+ * called, decomposing a time does not touch {@link TimeZone} or {@link java.util.Calendar}.
+ */
+final class TimeDecomposer {
+
+    private static final long SECOND_MS = 1000L;
+    private static final long MINUTE_MS = 60 * SECOND_MS;
+    private static final long DAY_MS = 24 * 60 * MINUTE_MS;
+
+    /** How far ahead a transition is looked for; the cache is refreshed at least this often. */
+    private static final long TRANSITION_SEARCH_WINDOW_MS = DAY_MS;
+
+    private TimeZone mTimeZone;
+    private long mOffsetMs;
+    private long mValidFromMs;
+    private long mValidUntilMs;
+    private int mRefreshCount;
+
+    TimeDecomposer(TimeZone timeZone) {
+        setTimeZone(timeZone);
+    }
+
+    /** Switches to {@code timeZone} and drops the cached offset. */
+    void setTimeZone(TimeZone timeZone) {
+        mTimeZone = timeZone;
+        mValidFromMs = Long.MAX_VALUE;
+        mValidUntilMs = Long.MIN_VALUE;
+    }
+
+    void decompose(long timeMs, TimeFields out) {
+        if (timeMs < mValidFromMs || timeMs >= mValidUntilMs) {
+            refresh(timeMs);
+        }
+        long localMs = timeMs + mOffsetMs;
+        long localDay = floorDiv(localMs, DAY_MS);
+        int secondOfDay = (int) ((localMs - localDay * DAY_MS) / SECOND_MS);
+
+        out.hourOfDay = secondOfDay / 3600;
+        out.minute = secondOfDay / 60 % 60;
+        out.second = secondOfDay % 60;
+        out.dayKey = localDay;
+        out.epochMinute = floorDiv(timeMs, MINUTE_MS);
+    }
+
+    /**
+     * Returns the first local midnight after {@code timeMs}, in epoch millis. If the offset
+     * changes before then, the result is off by that change; scheduling again from the time it
+     * is reached converges on the real midnight.
+     */
+    long nextLocalMidnight(long timeMs) {
+        if (timeMs < mValidFromMs || timeMs >= mValidUntilMs) {
+            refresh(timeMs);
+        }
+        return (floorDiv(timeMs + mOffsetMs, DAY_MS) + 1) * DAY_MS - mOffsetMs;
+    }
+
+    /** Returns how many times the offset had to be looked up again. */
+    int getRefreshCount() {
+        return mRefreshCount;
+    }
+
+    private void refresh(long timeMs) {
+        mRefreshCount++;
+        mOffsetMs = mTimeZone.getOffset(timeMs);
+        mValidFromMs = timeMs;
+
+        long end = timeMs + TRANSITION_SEARCH_WINDOW_MS;
+        if (mTimeZone.getOffset(end) == mOffsetMs) {
+            mValidUntilMs = end;
+            return;
+        }
+        // Binary search for the first millisecond with the new offset.
+        long low = timeMs;
+        long high = end;
+        while (high - low > 1) {
+            long mid = (low + high) >>> 1;
+            if (mTimeZone.getOffset(mid) == mOffsetMs) {
+                low = mid;
+            } else {
+                high = mid;
+            }
+        }
+        mValidUntilMs = high;
+    }
+
+    private static long floorDiv(long value, long divisor) {
+        long quotient = value / divisor;
+        if ((value % divisor != 0) && ((value < 0) != (divisor < 0))) {
+            quotient--;
+        }
+        return quotient;
+    }
+}
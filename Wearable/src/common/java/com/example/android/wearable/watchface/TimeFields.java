@@ -0,0 +1,62 @@
+/*
+ * Copyright (C) 2014 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.example.android.wearable.watchface;
+
+import java.util.Calendar;
+
+/**
+ * The fields of the current time that the watch face renders, decomposed once per frame so the
+ * drawing code does not have to query a {@link Calendar} field by field. They are normally filled
+ * in by {@link TimeDecomposer}; {@link #setFromCalendar} is the reference implementation.
+ */
+final class TimeFields {
+
+    private static final long DAY_MS = 24 * 60 * 60 * 1000L;
+
+    int hourOfDay;
+    int minute;
+    int second;
+
+    /** Days since the epoch in local time; changes exactly when the date changes. */
+    long dayKey;
+
+    /** Minutes since the epoch. */
+    long epochMinute;
+
+    /** Reads the fields from {@code calendar}, which must already be set to {@code timeMs}. */
+    void setFromCalendar(Calendar calendar, long timeMs) {
+        hourOfDay = calendar.get(Calendar.HOUR_OF_DAY);
+        minute = calendar.get(Calendar.MINUTE);
+        second = calendar.get(Calendar.SECOND);
+        long localMs = timeMs + calendar.get(Calendar.ZONE_OFFSET)
+                + calendar.get(Calendar.DST_OFFSET);
+        dayKey = localMs >= 0 ? localMs / DAY_MS : (localMs + 1) / DAY_MS - 1;
+        epochMinute = timeMs / 60000L;
+    }
+
+    boolean isAm() {
+        return hourOfDay < 12;
+    }
+
+    /**
+     * Returns a key that changes whenever anything drawn from the hours and minutes changes,
+     * including the 12/24-hour setting.
+     */
+    long getMinuteKey(boolean is24Hour) {
+        return epochMinute * 2 + (is24Hour ? 1 : 0);
+    }
+}
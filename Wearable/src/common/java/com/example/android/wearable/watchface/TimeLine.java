@@ -0,0 +1,99 @@
+/*
+ * Copyright (C) 2014 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.example.android.wearable.watchface;
+
+/**
+ * Formats and lays out the "HH:MM:SS" time line. The hours and minutes are drawn together with
+ * the second colon (they change once a minute); the seconds are drawn separately, at the
+ * position returned for them.
+ */
+final class TimeLine {
+
+    static final char[] COLON = {':'};
+
+    private final char[] mHourChars = new char[2];
+    private final char[] mMinuteChars = new char[2];
+    private final char[] mSecondChars = new char[2];
+    private int mHourLength;
+
+    private float mXOffset;
+    private float mYOffset;
+
+    void setPosition(float xOffset, float yOffset) {
+        mXOffset = xOffset;
+        mYOffset = yOffset;
+    }
+
+    /**
+     * Formats the hours and minutes of {@code time} into {@link #getHourChars()} and
+     * {@link #getMinuteChars()}.
+     *
+     * @return the number of hour chars
+     */
+    int formatHoursAndMinutes(TimeFields time, boolean is24Hour) {
+        mHourLength = CharFormatter.appendHour(mHourChars, 0, time.hourOfDay, is24Hour);
+        CharFormatter.appendTwoDigits(mMinuteChars, 0, time.minute);
+        return mHourLength;
+    }
+
+    /**
+     * Draws "HH:MM:", the second colon included.
+     *
+     * @return the x coordinate where the seconds start
+     */
+    float drawHoursAndMinutes(TextCanvas canvas, TimeFields time, boolean is24Hour) {
+        return drawHoursAndMinutes(canvas, time, is24Hour, true);
+    }
+
+    /**
+     * Draws "HH:MM", followed by the colon before the seconds if {@code secondsColon} is set.
+     *
+     * @return the x coordinate where the seconds start
+     */
+    float drawHoursAndMinutes(TextCanvas canvas, TimeFields time, boolean is24Hour,
+            boolean secondsColon) {
+        formatHoursAndMinutes(time, is24Hour);
+        float x = mXOffset;
+        x = drawRun(canvas, mHourChars, mHourLength, x, TextCanvas.STYLE_HOUR);
+        x = drawRun(canvas, COLON, 1, x, TextCanvas.STYLE_COLON);
+        x = drawRun(canvas, mMinuteChars, 2, x, TextCanvas.STYLE_MINUTE);
+        return secondsColon ? drawRun(canvas, COLON, 1, x, TextCanvas.STYLE_COLON) : x;
+    }
+
+    /** Draws the two second digits at {@code x}. */
+    void drawSeconds(TextCanvas canvas, TimeFields time, float x) {
+        CharFormatter.appendTwoDigits(mSecondChars, 0, time.second);
+        canvas.drawText(mSecondChars, 0, 2, x, mYOffset, TextCanvas.STYLE_SECOND);
+    }
+
+    char[] getHourChars() {
+        return mHourChars;
+    }
+
+    char[] getMinuteChars() {
+        return mMinuteChars;
+    }
+
+    float getBaseline() {
+        return mYOffset;
+    }
+
+    private float drawRun(TextCanvas canvas, char[] text, int count, float x, int style) {
+        canvas.drawText(text, 0, count, x, mYOffset, style);
+        return x + canvas.measureText(text, 0, count, style);
+    }
+}
@@ -0,0 +1,156 @@
+/*
+ * Copyright (C) 2014 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.example.android.wearable.watchface;
+
+import android.graphics.Bitmap;
+import android.graphics.Canvas;
+import android.graphics.Color;
+import android.graphics.Paint;
+import android.graphics.Typeface;
+
+/**
+ * Draws the ambient mode frame: the time, and AM/PM in 12-hour mode, on a black background. The
+ * paints are set up once per device properties change rather than per frame, and the rendered
+ * frame is cached until the minute (or anything else in its key) changes.
+ * <p>
+ * Two frames are cached, so that the frame for the next minute can be rendered ahead of time
+ * while the current one is still shown. Each render goes into the frame that was not rendered
+ * last, which keeps the most recent one, normally the current or the upcoming minute.
+ */
+final class AmbientRenderer {
+
+    private static final int BACKGROUND_COLOR = Color.BLACK;
+    private static final int TEXT_TIME_COLOR = Color.WHITE;
+    private static final int TEXT_SECONDARY_COLOR = Color.GRAY;
+
+    private static final char[] COLON = {':'};
+
+    private final Typeface mNormalTypeface;
+    private final Typeface mBoldTypeface;
+
+    private final Paint mHourPaint = new Paint();
+    private final Paint mMinutePaint = new Paint();
+    private final Paint mColonPaint = new Paint();
+    private final Paint mAmPmPaint = new Paint();
+
+    private final CachedLayer[] mFrames = {
+            new CachedLayer(Bitmap.Config.RGB_565), new CachedLayer(Bitmap.Config.RGB_565)};
+    private int mLastRendered;
+    private int mLastDrawn = -1;
+
+    private float mXOffset;
+    private float mYOffset;
+    private float mColonWidth;
+
+    AmbientRenderer(Typeface normalTypeface, Typeface boldTypeface) {
+        mNormalTypeface = normalTypeface;
+        mBoldTypeface = boldTypeface;
+        setProperties(false, false);
+    }
+
+    /**
+     * Configures the paints for the display's ambient capabilities. On low-bit displays
+     * everything is drawn in pure white without anti-aliasing; with burn-in protection the
+     * hours are not drawn in bold.
+     */
+    void setProperties(boolean lowBitAmbient, boolean burnInProtection) {
+        boolean antiAlias = !lowBitAmbient;
+        int secondaryColor = lowBitAmbient ? TEXT_TIME_COLOR : TEXT_SECONDARY_COLOR;
+
+        setUpPaint(mHourPaint, TEXT_TIME_COLOR,
+                burnInProtection ? mNormalTypeface : mBoldTypeface, antiAlias);
+        setUpPaint(mMinutePaint, TEXT_TIME_COLOR, mNormalTypeface, antiAlias);
+        setUpPaint(mColonPaint, secondaryColor, mNormalTypeface, antiAlias);
+        setUpPaint(mAmPmPaint, secondaryColor, mNormalTypeface, antiAlias);
+        mColonWidth = mColonPaint.measureText(COLON, 0, 1);
+        invalidate();
+    }
+
+    /** Sets the position of the time line and the text sizes. */
+    void setLayout(float xOffset, float yOffset, float textSize, float amPmSize) {
+        mXOffset = xOffset;
+        mYOffset = yOffset;
+        mHourPaint.setTextSize(textSize);
+        mMinutePaint.setTextSize(textSize);
+        mColonPaint.setTextSize(textSize);
+        mAmPmPaint.setTextSize(amPmSize);
+        mColonWidth = mColonPaint.measureText(COLON, 0, 1);
+        invalidate();
+    }
+
+    /** Returns whether the cached frame is up to date for {@code key}. */
+    boolean isValid(long key) {
+        return mFrames[0].isValid(key) || mFrames[1].isValid(key);
+    }
+
+    void invalidate() {
+        mFrames[0].invalidate();
+        mFrames[1].invalidate();
+    }
+
+    /**
+     * Renders the frame for {@code key} into the cache.
+     *
+     * @param amPm the AM/PM string to draw after the minutes, or {@code null} in 24-hour mode
+     */
+    void render(int width, int height, long key, char[] hour, int hourLength, char[] minute,
+            String amPm) {
+        int target = 1 - mLastRendered;
+        Canvas canvas = mFrames[target].beginRender(width, height);
+        canvas.drawColor(BACKGROUND_COLOR);
+
+        float x = mXOffset;
+        canvas.drawText(hour, 0, hourLength, x, mYOffset, mHourPaint);
+        x += mHourPaint.measureText(hour, 0, hourLength);
+        canvas.drawText(COLON, 0, 1, x, mYOffset, mColonPaint);
+        x += mColonWidth;
+        canvas.drawText(minute, 0, 2, x, mYOffset, mMinutePaint);
+        x += mMinutePaint.measureText(minute, 0, 2);
+        if (amPm != null) {
+            canvas.drawText(amPm, x + mColonWidth, mYOffset, mAmPmPaint);
+        }
+        mFrames[target].endRender(key);
+        mLastRendered = target;
+    }
+
+    /** Blits the cached frame for {@code key}, which must be {@link #isValid(long) valid}. */
+    void draw(Canvas canvas, long key) {
+        mLastDrawn = mFrames[0].isValid(key) ? 0 : 1;
+        mFrames[mLastDrawn].draw(canvas);
+    }
+
+    /** Returns the frame drawn last, or {@code null} if there is none. */
+    Bitmap getDrawnBitmap() {
+        return mLastDrawn < 0 ? null : mFrames[mLastDrawn].getBitmap();
+    }
+
+    /** Returns how many frames were rendered, ahead of time or not. */
+    int getRenderCount() {
+        return mFrames[0].getRebuildCount() + mFrames[1].getRebuildCount();
+    }
+
+    void recycle() {
+        mFrames[0].recycle();
+        mFrames[1].recycle();
+    }
+
+    private static void setUpPaint(Paint paint, int color, Typeface typeface, boolean antiAlias) {
+        paint.setColor(color);
+        paint.setTypeface(typeface);
+        paint.setAntiAlias(antiAlias);
+    }
+}
@@ -0,0 +1,291 @@
+/*
+ * Copyright (C) 2014 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.example.android.wearable.watchface;
+
+import android.content.Context;
+import android.content.pm.PackageManager;
+import android.graphics.Bitmap;
+import android.graphics.BitmapFactory;
+import android.os.AsyncTask;
+import android.util.Log;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+
+/**
+ * Loads a background drawable already scaled to the surface size.
+ * <p>
+ * {@link #loadCached} only reads pixels cached by an earlier load, which is quick enough for a
+ * surface callback. On a cache miss {@link #loadAsync} does the actual load on a background
+ * thread and hands the bitmap to a {@link Listener} on the main thread.
+ * <p>
+ * A load decodes the resource with {@link BitmapFactory.Options#inSampleSize} so that the
+ * full-size image is never resident, scales the result to the exact size and drops the decoded
+ * source. The scaled pixels are then written raw to the app cache dir, keyed by resource, size,
+ * config and the time the app was last installed or updated, so later engines skip both the
+ * decode and the scale, and a new build with a different image does not reuse the old pixels.
+ */
+final class BackgroundLoader {
+
+    private static final String TAG = "WatchFaceTCC";
+
+    private static final String CACHE_FILE_PREFIX = "bg_";
+    private static final int CACHE_MAGIC = 0x54434342; // "TCCB"
+    private static final int HEADER_SIZE = 4 * 4;
+
+    private final Context mContext;
+    private final int mResId;
+    private final Bitmap.Config mConfig;
+    private final long mAppUpdateTime;
+
+    /** The load in flight, if any. Main thread only. */
+    private LoadTask mTask;
+
+    interface Listener {
+        /** Called on the main thread with the background {@link #loadAsync} loaded. */
+        void onBackgroundLoaded(Bitmap bitmap);
+    }
+
+    /**
+     * @param compact whether to decode to {@link Bitmap.Config#RGB_565} (half the memory of
+     *                ARGB_8888, fine for an opaque photo) instead of ARGB_8888
+     */
+    BackgroundLoader(Context context, int resId, boolean compact) {
+        mContext = context;
+        mResId = resId;
+        mConfig = compact ? Bitmap.Config.RGB_565 : Bitmap.Config.ARGB_8888;
+        mAppUpdateTime = getAppUpdateTime(context);
+    }
+
+    private static long getAppUpdateTime(Context context) {
+        try {
+            return context.getPackageManager()
+                    .getPackageInfo(context.getPackageName(), 0).lastUpdateTime;
+        } catch (PackageManager.NameNotFoundException e) {
+            // Cannot happen for our own package.
+            return 0;
+        }
+    }
+
+    /**
+     * Returns the background scaled to exactly {@code width} x {@code height} if an earlier load
+     * cached it, else null.
+     */
+    Bitmap loadCached(int width, int height) {
+        File cacheFile = getCacheFile(width, height);
+        Bitmap bitmap = readCache(cacheFile, width, height);
+        if (bitmap != null && Log.isLoggable(TAG, Log.DEBUG)) {
+            Log.d(TAG, "Background loaded from " + cacheFile.getName());
+        }
+        return bitmap;
+    }
+
+    /**
+     * Decodes, scales and caches the background for {@code width} x {@code height} on a
+     * background thread, replacing a load in flight for another size. Called on the main thread.
+     */
+    void loadAsync(int width, int height, Listener listener) {
+        if (mTask != null) {
+            if (mTask.mWidth == width && mTask.mHeight == height) {
+                return;
+            }
+            mTask.cancel(false);
+        }
+        mTask = new LoadTask(width, height, listener);
+        mTask.execute();
+    }
+
+    /** Drops the load in flight, if any; its bitmap is recycled rather than delivered. */
+    void cancel() {
+        if (mTask != null) {
+            mTask.cancel(false);
+            mTask = null;
+        }
+    }
+
+    private Bitmap decodeAndCache(int width, int height) {
+        File cacheFile = getCacheFile(width, height);
+        Bitmap bitmap = decodeScaled(width, height);
+        deleteStaleCacheFiles(cacheFile);
+        writeCache(cacheFile, bitmap);
+        return bitmap;
+    }
+
+    private Bitmap decodeScaled(int width, int height) {
+        BitmapFactory.Options options = new BitmapFactory.Options();
+        options.inJustDecodeBounds = true;
+        options.inScaled = false;
+        BitmapFactory.decodeResource(mContext.getResources(), mResId, options);
+
+        // Largest power of two that still leaves the decoded image at least as big as the surface.
+        int sampleSize = 1;
+        while (options.outWidth / (sampleSize * 2) >= width
+                && options.outHeight / (sampleSize * 2) >= height) {
+            sampleSize *= 2;
+        }
+
+        options.inJustDecodeBounds = false;
+        options.inSampleSize = sampleSize;
+        options.inPreferredConfig = mConfig;
+        Bitmap decoded = BitmapFactory.decodeResource(mContext.getResources(), mResId, options);
+
+        if (decoded.getWidth() == width && decoded.getHeight() == height) {
+            return decoded;
+        }
+        Bitmap scaled = Bitmap.createScaledBitmap(decoded, width, height, true /* filter */);
+        if (scaled != decoded) {
+            decoded.recycle();
+        }
+        return scaled;
+    }
+
+    private File getCacheFile(int width, int height) {
+        return new File(mContext.getCacheDir(), CACHE_FILE_PREFIX + mResId + "_" + width + "x"
+                + height + "_" + mConfig.name() + "_" + mAppUpdateTime + ".raw");
+    }
+
+    private Bitmap readCache(File file, int width, int height) {
+        if (!file.exists()) {
+            return null;
+        }
+        FileInputStream in = null;
+        try {
+            in = new FileInputStream(file);
+            FileChannel channel = in.getChannel();
+            // A file cut short, e.g. by a crash while it was written, must not be mapped and
+            // read past its end.
+            long pixelBytes = (long) width * height
+                    * (mConfig == Bitmap.Config.RGB_565 ? 2 : 4);
+            if (channel.size() < HEADER_SIZE + pixelBytes) {
+                Log.w(TAG, "Ignoring truncated background cache " + file.getName());
+                return null;
+            }
+            MappedByteBuffer buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+            buffer.order(ByteOrder.BIG_ENDIAN);
+            if (buffer.getInt() != CACHE_MAGIC
+                    || buffer.getInt() != width
+                    || buffer.getInt() != height
+                    || buffer.getInt() != mConfig.ordinal()) {
+                Log.w(TAG, "Ignoring mismatching background cache " + file.getName());
+                return null;
+            }
+            Bitmap bitmap = Bitmap.createBitmap(width, height, mConfig);
+            bitmap.copyPixelsFromBuffer(buffer);
+            return bitmap;
+        } catch (IOException e) {
+            Log.w(TAG, "Could not read background cache " + file.getName(), e);
+            return null;
+        } finally {
+            closeQuietly(in);
+        }
+    }
+
+    private void writeCache(File file, Bitmap bitmap) {
+        File tmpFile = new File(file.getPath() + ".tmp");
+        FileOutputStream out = null;
+        try {
+            ByteBuffer buffer = ByteBuffer.allocate(HEADER_SIZE + bitmap.getByteCount());
+            buffer.order(ByteOrder.BIG_ENDIAN);
+            buffer.putInt(CACHE_MAGIC);
+            buffer.putInt(bitmap.getWidth());
+            buffer.putInt(bitmap.getHeight());
+            buffer.putInt(mConfig.ordinal());
+            bitmap.copyPixelsToBuffer(buffer);
+            buffer.flip();
+
+            out = new FileOutputStream(tmpFile);
+            FileChannel channel = out.getChannel();
+            while (buffer.hasRemaining()) {
+                channel.write(buffer);
+            }
+            out.close();
+            out = null;
+            if (!tmpFile.renameTo(file)) {
+                Log.w(TAG, "Could not rename background cache to " + file.getName());
+                tmpFile.delete();
+            }
+        } catch (IOException e) {
+            Log.w(TAG, "Could not write background cache " + file.getName(), e);
+            tmpFile.delete();
+        } finally {
+            closeQuietly(out);
+        }
+    }
+
+    /** Removes cache files of this resource for other sizes, configs or app versions. */
+    private void deleteStaleCacheFiles(File keep) {
+        File[] files = mContext.getCacheDir().listFiles();
+        if (files == null) {
+            return;
+        }
+        String prefix = CACHE_FILE_PREFIX + mResId + "_";
+        for (File file : files) {
+            if (file.getName().startsWith(prefix) && !file.equals(keep)) {
+                file.delete();
+            }
+        }
+    }
+
+    private final class LoadTask extends AsyncTask<Void, Void, Bitmap> {
+
+        final int mWidth;
+        final int mHeight;
+        private final Listener mListener;
+
+        LoadTask(int width, int height, Listener listener) {
+            mWidth = width;
+            mHeight = height;
+            mListener = listener;
+        }
+
+        @Override
+        protected Bitmap doInBackground(Void... params) {
+            return decodeAndCache(mWidth, mHeight);
+        }
+
+        @Override
+        protected void onPostExecute(Bitmap bitmap) {
+            mTask = null;
+            mListener.onBackgroundLoaded(bitmap);
+        }
+
+        @Override
+        protected void onCancelled(Bitmap bitmap) {
+            if (bitmap != null) {
+                bitmap.recycle();
+            }
+        }
+    }
+
+    private static void closeQuietly(Closeable closeable) {
+        if (closeable == null) {
+            return;
+        }
+        try {
+            closeable.close();
+        } catch (IOException e) {
+            // Nothing useful to do here.
+        }
+    }
+}
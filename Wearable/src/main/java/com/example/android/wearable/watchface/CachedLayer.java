@@ -0,0 +1,97 @@
+/*
+ * Copyright (C) 2014 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.example.android.wearable.watchface;
+
+import android.graphics.Bitmap;
+import android.graphics.Canvas;
+
+/**
+ * An offscreen, surface-sized bitmap holding the part of the watch face that only changes when
+ * its inputs change. The layer remembers the key it was rendered for; callers compare it against
+ * the key of the current frame and only re-render on a mismatch or after {@link #invalidate()}.
+ */
+final class CachedLayer {
+
+    private final Bitmap.Config mConfig;
+
+    private Bitmap mBitmap;
+    private final Canvas mCanvas = new Canvas();
+
+    private long mKey;
+    private boolean mValid;
+    private int mRebuildCount;
+
+    CachedLayer(Bitmap.Config config) {
+        mConfig = config;
+    }
+
+    /** Returns whether the layer holds an up to date rendering for {@code key}. */
+    boolean isValid(long key) {
+        return mValid && mKey == key && mBitmap != null;
+    }
+
+    /** Marks the layer stale so that it is rendered again on the next frame. */
+    void invalidate() {
+        mValid = false;
+    }
+
+    /**
+     * Returns a canvas to render the layer into, resizing the backing bitmap if needed. The
+     * previous contents are not cleared. Call {@link #endRender(long)} once done.
+     */
+    Canvas beginRender(int width, int height) {
+        if (mBitmap == null || mBitmap.getWidth() != width || mBitmap.getHeight() != height) {
+            if (mBitmap != null) {
+                mBitmap.recycle();
+            }
+            mBitmap = Bitmap.createBitmap(width, height, mConfig);
+            mCanvas.setBitmap(mBitmap);
+        }
+        return mCanvas;
+    }
+
+    /** Marks the layer as rendered for {@code key}. */
+    void endRender(long key) {
+        mKey = key;
+        mValid = true;
+        mRebuildCount++;
+    }
+
+    /** Draws the cached layer at the origin of {@code canvas}. */
+    void draw(Canvas canvas) {
+        canvas.drawBitmap(mBitmap, 0, 0, null);
+    }
+
+    /** Returns the backing bitmap, or {@code null} if the layer was never rendered. */
+    Bitmap getBitmap() {
+        return mBitmap;
+    }
+
+    /** Returns how many times the layer has been rendered since it was created. */
+    int getRebuildCount() {
+        return mRebuildCount;
+    }
+
+    void recycle() {
+        if (mBitmap != null) {
+            mCanvas.setBitmap(null);
+            mBitmap.recycle();
+            mBitmap = null;
+        }
+        mValid = false;
+    }
+}
@@ -0,0 +1,84 @@
+/*
+ * Copyright (C) 2014 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.example.android.wearable.watchface;
+
+import android.graphics.Canvas;
+import android.graphics.Paint;
+
+/**
+ * {@link TextCanvas} backed by an Android {@link Canvas}. Each style is drawn either as text with
+ * its {@link Paint} or, when atlases are enabled, blitted from the {@link GlyphAtlas} of that
+ * paint.
+ */
+final class CanvasTextCanvas implements TextCanvas {
+
+    private final Paint[] mPaints = new Paint[STYLE_COUNT];
+    private final GlyphAtlas[] mAtlases = new GlyphAtlas[STYLE_COUNT];
+
+    private Canvas mCanvas;
+    private boolean mUseAtlas;
+
+    /** Registers the paint of {@code style} and creates its atlas. */
+    void setPaint(int style, Paint paint) {
+        mPaints[style] = paint;
+        mAtlases[style] = new GlyphAtlas(paint);
+    }
+
+    void setUseAtlas(boolean useAtlas) {
+        mUseAtlas = useAtlas;
+    }
+
+    boolean isUsingAtlas() {
+        return mUseAtlas;
+    }
+
+    /** Points this at {@code canvas} for the following draw calls. */
+    CanvasTextCanvas wrap(Canvas canvas) {
+        mCanvas = canvas;
+        return this;
+    }
+
+    @Override
+    public void drawText(char[] text, int start, int count, float x, float y, int style) {
+        if (mUseAtlas) {
+            mAtlases[style].drawText(mCanvas, text, start, count, x, y);
+        } else {
+            mCanvas.drawText(text, start, count, x, y, mPaints[style]);
+        }
+    }
+
+    @Override
+    public float measureText(char[] text, int start, int count, int style) {
+        if (mUseAtlas) {
+            return mAtlases[style].measureText(text, start, count);
+        }
+        return mPaints[style].measureText(text, start, count);
+    }
+
+    /** Forces every atlas to be rebuilt, e.g. after text sizes or typefaces changed. */
+    void invalidateAtlases() {
+        for (GlyphAtlas atlas : mAtlases) {
+            atlas.invalidate();
+        }
+    }
+
+    void recycleAtlases() {
+        for (GlyphAtlas atlas : mAtlases) {
+            atlas.recycle();
+        }
+    }
+}
@@ -0,0 +1,65 @@
+/*
+ * Copyright (C) 2014 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.example.android.wearable.watchface;
+
+import java.io.PrintWriter;
+
+/**
+ * Collects which cached parts of the face were made stale by state changes since the last
+ * frame. Event handlers only mark; the marks are applied right before the next frame is drawn,
+ * so a burst of changes costs one re-render of each affected layer and no extra redraw.
+ * <p>
+ * Marks may come from any thread, e.g. the main thread while frames are drawn on the engine's
+ * {@link RenderThread}.
+ */
+final class DirtyTracker {
+
+    /** The background and date layer. Also stales the minute layer, which is drawn from it. */
+    static final int DAY_LAYER = 1;
+    /** The time, steps and battery layer. */
+    static final int MINUTE_LAYER = 1 << 1;
+    /** The cached ambient frame. */
+    static final int AMBIENT_FRAME = 1 << 2;
+
+    private int mPending;
+    private long mMarkCount;
+    private long mApplyCount;
+
+    synchronized void mark(int flags) {
+        mPending |= flags;
+        mMarkCount++;
+    }
+
+    /** Returns the pending flags and clears them. */
+    synchronized int takePending() {
+        int pending = mPending;
+        mPending = 0;
+        if (pending != 0) {
+            mApplyCount++;
+        }
+        return pending;
+    }
+
+    synchronized void dump(PrintWriter writer, String prefix) {
+        writer.print(prefix);
+        writer.print("dirty marks: ");
+        writer.print(mMarkCount);
+        writer.print(", applied in ");
+        writer.print(mApplyCount);
+        writer.println(" frames");
+    }
+}
@@ -0,0 +1,314 @@
+/*
+ * Copyright (C) 2014 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.example.android.wearable.watchface;
+
+import java.io.PrintWriter;
+import java.util.Locale;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Correlates battery drain with what the watch face was doing, so that rendering changes can be
+ * compared by their energy effect rather than by CPU time alone.
+ * <p>
+ * Every battery level change is recorded in a fixed-size ring of primitive arrays, together with
+ * how long the face spent in each {@code STATE_} since the previous one and the rendering
+ * strategy it used. From the recorded intervals {@link #dump} estimates the drain rate of each
+ * state by least squares (the drop of every interval is the sum of the state rates times the
+ * time spent in them), and the overall drain rate of each strategy over the intervals that ran
+ * it throughout. Intervals spent charging are left out.
+ * <p>
+ * All methods are synchronized: quality changes are reported by whichever thread draws.
+ */
+final class EnergyProfiler {
+
+    static final int STATE_INTERACTIVE = 0;
+    /** Interactive, but dropped to minute updates after a while without interaction. */
+    static final int STATE_IDLE = 1;
+    static final int STATE_AMBIENT = 2;
+    static final int STATE_INVISIBLE = 3;
+    private static final int STATE_COUNT = 4;
+
+    private static final String[] STATE_NAMES = {"interactive", "idle", "ambient", "invisible"};
+
+    /*
+     * Strategy bits. The frame quality level takes the bits from STRATEGY_QUALITY_SHIFT up.
+     */
+    static final int STRATEGY_RENDER_THREAD = 1;
+    static final int STRATEGY_SMOOTH_SECONDS = 1 << 1;
+    static final int STRATEGY_GLYPH_ATLAS = 1 << 2;
+    static final int STRATEGY_QUALITY_SHIFT = 3;
+
+    /** The strategy of an interval during which it changed. */
+    private static final int STRATEGY_MIXED = -1;
+
+    private static final int CAPACITY = 512;
+    private static final double MS_PER_HOUR = TimeUnit.HOURS.toMillis(1);
+
+    // The ring of battery samples. Entry i covers the time since entry i - 1.
+    private final long[] mTimes = new long[CAPACITY];
+    private final float[] mLevels = new float[CAPACITY];
+    private final boolean[] mCharging = new boolean[CAPACITY];
+    private final int[] mStrategies = new int[CAPACITY];
+    private final int[][] mStateMs = new int[STATE_COUNT][CAPACITY];
+    private int mHead;
+    private int mSize;
+
+    // The interval since the last sample.
+    private final long[] mIntervalStateMs = new long[STATE_COUNT];
+    private int mIntervalStrategy;
+
+    private int mState = STATE_INVISIBLE;
+    private int mStrategy;
+    private long mSinceMs;
+
+    private float mLastLevel = -1;
+    private boolean mLastCharging;
+
+    EnergyProfiler(int strategy, long nowMs) {
+        mStrategy = strategy;
+        mIntervalStrategy = strategy;
+        mSinceMs = nowMs;
+    }
+
+    synchronized void setState(int state, long nowMs) {
+        if (state == mState) {
+            return;
+        }
+        accumulate(nowMs);
+        mState = state;
+    }
+
+    synchronized void setStrategy(int strategy, long nowMs) {
+        if (strategy == mStrategy) {
+            return;
+        }
+        accumulate(nowMs);
+        mStrategy = strategy;
+        mIntervalStrategy = STRATEGY_MIXED;
+    }
+
+    /**
+     * Records a battery broadcast. Only a changed level or charging state starts a new interval;
+     * the broadcast also fires for voltage and temperature changes.
+     */
+    synchronized void recordBattery(float levelPercent, boolean charging, long nowMs) {
+        if (levelPercent == mLastLevel && charging == mLastCharging) {
+            return;
+        }
+        accumulate(nowMs);
+        if (mLastLevel >= 0) {
+            mTimes[mHead] = nowMs;
+            mLevels[mHead] = levelPercent;
+            // Counts as charging if it was plugged in at either end.
+            mCharging[mHead] = charging || mLastCharging;
+            mStrategies[mHead] = mIntervalStrategy;
+            for (int state = 0; state < STATE_COUNT; state++) {
+                mStateMs[state][mHead] = (int) Math.min(Integer.MAX_VALUE, mIntervalStateMs[state]);
+            }
+            mHead = (mHead + 1) % CAPACITY;
+            mSize = Math.min(mSize + 1, CAPACITY);
+        }
+        mLastLevel = levelPercent;
+        mLastCharging = charging;
+        for (int state = 0; state < STATE_COUNT; state++) {
+            mIntervalStateMs[state] = 0;
+        }
+        mIntervalStrategy = mStrategy;
+    }
+
+    private void accumulate(long nowMs) {
+        mIntervalStateMs[mState] += Math.max(0, nowMs - mSinceMs);
+        mSinceMs = nowMs;
+    }
+
+    /**
+     * Returns the level drop over recorded entry {@code index} (0 is the oldest), or NaN if the
+     * interval does not count: charging, the first entry, or a level that rose regardless.
+     */
+    private float getDrop(int index) {
+        if (index == 0) {
+            return Float.NaN;
+        }
+        int entry = toEntry(index);
+        if (mCharging[entry]) {
+            return Float.NaN;
+        }
+        float drop = mLevels[toEntry(index - 1)] - mLevels[entry];
+        return drop >= 0 ? drop : Float.NaN;
+    }
+
+    private int toEntry(int index) {
+        return (mHead - mSize + index + CAPACITY) % CAPACITY;
+    }
+
+    /**
+     * Fills {@code rates} with the drain of every state in percent per hour, NaN for states
+     * without enough data, by solving the least squares normal equations.
+     *
+     * @return the number of intervals used
+     */
+    private int estimateStateRates(double[] rates) {
+        double[][] ata = new double[STATE_COUNT][STATE_COUNT + 1];
+        int intervals = 0;
+        for (int index = 0; index < mSize; index++) {
+            float drop = getDrop(index);
+            if (Float.isNaN(drop)) {
+                continue;
+            }
+            int entry = toEntry(index);
+            for (int i = 0; i < STATE_COUNT; i++) {
+                double hoursI = mStateMs[i][entry] / MS_PER_HOUR;
+                for (int j = 0; j < STATE_COUNT; j++) {
+                    ata[i][j] += hoursI * (mStateMs[j][entry] / MS_PER_HOUR);
+                }
+                ata[i][STATE_COUNT] += hoursI * drop;
+            }
+            intervals++;
+        }
+        solve(ata, rates);
+        return intervals;
+    }
+
+    /**
+     * Solves the augmented system {@code matrix} by Gaussian elimination with partial pivoting,
+     * leaving NaN for unknowns without a usable pivot, i.e. states that never occurred.
+     */
+    private static void solve(double[][] matrix, double[] out) {
+        int n = out.length;
+        boolean[] solvable = new boolean[n];
+        int[] pivotRows = new int[n];
+        int row = 0;
+        for (int column = 0; column < n && row < n; column++) {
+            int best = row;
+            for (int r = row + 1; r < n; r++) {
+                if (Math.abs(matrix[r][column]) > Math.abs(matrix[best][column])) {
+                    best = r;
+                }
+            }
+            if (Math.abs(matrix[best][column]) < 1e-12) {
+                continue;
+            }
+            double[] swap = matrix[row];
+            matrix[row] = matrix[best];
+            matrix[best] = swap;
+            for (int r = 0; r < n; r++) {
+                if (r != row) {
+                    double factor = matrix[r][column] / matrix[row][column];
+                    for (int c = column; c <= n; c++) {
+                        matrix[r][c] -= factor * matrix[row][c];
+                    }
+                }
+            }
+            solvable[column] = true;
+            pivotRows[column] = row;
+            row++;
+        }
+        for (int column = 0; column < n; column++) {
+            out[column] = solvable[column]
+                    ? matrix[pivotRows[column]][n] / matrix[pivotRows[column]][column]
+                    : Double.NaN;
+        }
+    }
+
+    static String describeStrategy(int strategy) {
+        if (strategy == STRATEGY_MIXED) {
+            return "mixed";
+        }
+        StringBuilder builder = new StringBuilder();
+        builder.append((strategy & STRATEGY_RENDER_THREAD) != 0 ? "render thread" : "main thread");
+        if ((strategy & STRATEGY_SMOOTH_SECONDS) != 0) {
+            builder.append(", smooth seconds");
+        }
+        if ((strategy & STRATEGY_GLYPH_ATLAS) != 0) {
+            builder.append(", glyph atlas");
+        }
+        builder.append(", quality ").append(strategy >> STRATEGY_QUALITY_SHIFT);
+        return builder.toString();
+    }
+
+    synchronized void dump(PrintWriter writer, String prefix, long nowMs) {
+        accumulate(nowMs);
+        writer.print(prefix);
+        writer.print("energy: battery samples=");
+        writer.print(mSize);
+        writer.print('/');
+        writer.print(CAPACITY);
+        if (mSize > 0) {
+            long spanMs = mTimes[toEntry(mSize - 1)] - mTimes[toEntry(0)];
+            writer.print(String.format(Locale.US, " over %.1fh", spanMs / MS_PER_HOUR));
+        }
+        writer.print(", current state ");
+        writer.println(STATE_NAMES[mState]);
+
+        double[] rates = new double[STATE_COUNT];
+        int intervals = estimateStateRates(rates);
+        writer.print(prefix);
+        writer.print("  drain by state (%/h, least squares over ");
+        writer.print(intervals);
+        writer.print(" intervals):");
+        for (int state = 0; state < STATE_COUNT; state++) {
+            long stateMs = 0;
+            for (int index = 0; index < mSize; index++) {
+                stateMs += mStateMs[state][toEntry(index)];
+            }
+            writer.print(' ');
+            writer.print(STATE_NAMES[state]);
+            writer.print('=');
+            writer.print(Double.isNaN(rates[state]) ? "?" : String.format(Locale.US, "%.2f",
+                    rates[state]));
+            writer.print(String.format(Locale.US, " (%.1fh)", stateMs / MS_PER_HOUR));
+        }
+        writer.println();
+
+        // Strategies, in the order they were first seen.
+        boolean[] done = new boolean[mSize];
+        for (int first = 0; first < mSize; first++) {
+            int strategy = mStrategies[toEntry(first)];
+            if (done[first] || strategy == STRATEGY_MIXED) {
+                continue;
+            }
+            double drop = 0;
+            long totalMs = 0;
+            long interactiveMs = 0;
+            for (int index = first; index < mSize; index++) {
+                int entry = toEntry(index);
+                if (mStrategies[entry] != strategy) {
+                    continue;
+                }
+                done[index] = true;
+                float intervalDrop = getDrop(index);
+                if (Float.isNaN(intervalDrop)) {
+                    continue;
+                }
+                drop += intervalDrop;
+                for (int state = 0; state < STATE_COUNT; state++) {
+                    totalMs += mStateMs[state][entry];
+                }
+                interactiveMs += mStateMs[STATE_INTERACTIVE][entry];
+            }
+            if (totalMs == 0) {
+                continue;
+            }
+            writer.print(prefix);
+            writer.print("  ");
+            writer.print(describeStrategy(strategy));
+            writer.println(String.format(Locale.US, ": %.2f%%/h over %.1fh, %d%% interactive",
+                    drop / (totalMs / MS_PER_HOUR), totalMs / MS_PER_HOUR,
+                    interactiveMs * 100 / totalMs));
+        }
+    }
+}
@@ -0,0 +1,217 @@
+/*
+ * Copyright (C) 2014 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.example.android.wearable.watchface;
+
+import android.content.BroadcastReceiver;
+import android.content.Context;
+import android.content.Intent;
+import android.content.IntentFilter;
+import android.content.res.Resources;
+import android.database.ContentObserver;
+import android.os.Handler;
+import android.provider.Settings;
+import android.text.format.DateFormat;
+import android.util.Log;
+
+import java.text.DecimalFormatSymbols;
+import java.util.Calendar;
+import java.util.TimeZone;
+
+/**
+ * Caches the system settings the watch face renders with: the 12/24-hour setting, the time zone,
+ * the date format and the AM/PM strings. They are read once and then only re-read when a
+ * broadcast or the {@link Settings.System#TIME_12_24} observer says they changed, so onDraw never
+ * goes through the settings provider.
+ * <p>
+ * The listener is told which settings actually changed, so that the engine can drop only the
+ * layers that depend on them. Settings are only updated while holding the lock passed to the
+ * constructor, so a frame drawn under that lock on another thread sees them consistent.
+ */
+final class FaceSettings {
+
+    private static final String TAG = "WatchFaceTCC";
+
+    /** The 12/24-hour setting changed. */
+    static final int CHANGED_24_HOUR = 1;
+    /** The time zone changed. */
+    static final int CHANGED_TIME_ZONE = 1 << 1;
+    /**
+     * The locale changed, so the date format, the AM/PM strings or the grouping separator may
+     * have changed.
+     */
+    static final int CHANGED_LOCALE = 1 << 2;
+    /** The wall clock was set. */
+    static final int CHANGED_TIME = 1 << 3;
+
+    interface Listener {
+        /** Called on the main thread with a combination of the {@code CHANGED_*} flags. */
+        void onSettingsChanged(int changes);
+    }
+
+    private final Context mContext;
+    private final Object mLock;
+    private final Listener mListener;
+
+    private final BroadcastReceiver mReceiver = new BroadcastReceiver() {
+        @Override
+        public void onReceive(Context context, Intent intent) {
+            String action = intent.getAction();
+            int changes = 0;
+            synchronized (mLock) {
+                if (Intent.ACTION_TIMEZONE_CHANGED.equals(action)) {
+                    changes = updateTimeZone();
+                } else if (Intent.ACTION_LOCALE_CHANGED.equals(action)) {
+                    changes = updateLocale();
+                } else if (Intent.ACTION_TIME_CHANGED.equals(action)) {
+                    changes = CHANGED_TIME;
+                }
+            }
+            notifyChanged(changes);
+        }
+    };
+
+    private final ContentObserver m24HourObserver;
+
+    private boolean mRegistered;
+
+    private boolean mIs24Hour;
+    private final Calendar mCalendar = Calendar.getInstance();
+    private java.text.DateFormat mDateFormat;
+    private String mAmString;
+    private String mPmString;
+    private char mGroupingSeparator;
+
+    FaceSettings(Context context, Handler handler, Object lock, Listener listener) {
+        mContext = context;
+        mLock = lock;
+        mListener = listener;
+        m24HourObserver = new ContentObserver(handler) {
+            @Override
+            public void onChange(boolean selfChange) {
+                int changes;
+                synchronized (mLock) {
+                    changes = update24Hour();
+                }
+                notifyChanged(changes);
+            }
+        };
+        refresh();
+    }
+
+    /**
+     * Starts listening for changes. Changes made while not registered are picked up by
+     * {@link #refresh()}.
+     */
+    void register() {
+        if (mRegistered) {
+            return;
+        }
+        mRegistered = true;
+
+        IntentFilter filter = new IntentFilter(Intent.ACTION_TIMEZONE_CHANGED);
+        filter.addAction(Intent.ACTION_LOCALE_CHANGED);
+        filter.addAction(Intent.ACTION_TIME_CHANGED);
+        mContext.registerReceiver(mReceiver, filter);
+        mContext.getContentResolver().registerContentObserver(
+                Settings.System.getUriFor(Settings.System.TIME_12_24), false, m24HourObserver);
+    }
+
+    void unregister() {
+        if (!mRegistered) {
+            return;
+        }
+        mRegistered = false;
+
+        mContext.unregisterReceiver(mReceiver);
+        mContext.getContentResolver().unregisterContentObserver(m24HourObserver);
+    }
+
+    /**
+     * Re-reads every setting and returns which ones changed, without notifying the listener.
+     * Used when the watch face becomes visible, since nothing is observed while it is not.
+     */
+    int refresh() {
+        synchronized (mLock) {
+            return update24Hour() | updateTimeZone() | updateLocale();
+        }
+    }
+
+    boolean is24Hour() {
+        return mIs24Hour;
+    }
+
+    TimeZone getTimeZone() {
+        return mCalendar.getTimeZone();
+    }
+
+    /** Returns the localized date format, set up for the current time zone. */
+    java.text.DateFormat getDateFormat() {
+        return mDateFormat;
+    }
+
+    String getAmPmString(boolean isAm) {
+        return isAm ? mAmString : mPmString;
+    }
+
+    private int update24Hour() {
+        boolean is24Hour = DateFormat.is24HourFormat(mContext);
+        if (is24Hour == mIs24Hour) {
+            return 0;
+        }
+        mIs24Hour = is24Hour;
+        return CHANGED_24_HOUR;
+    }
+
+    private int updateTimeZone() {
+        TimeZone timeZone = TimeZone.getDefault();
+        if (timeZone.equals(mCalendar.getTimeZone())) {
+            return 0;
+        }
+        mCalendar.setTimeZone(timeZone);
+        return CHANGED_TIME_ZONE;
+    }
+
+    private int updateLocale() {
+        Resources resources = mContext.getResources();
+        String amString = resources.getString(R.string.fit_am);
+        String pmString = resources.getString(R.string.fit_pm);
+        java.text.DateFormat dateFormat = DateFormat.getDateFormat(mContext);
+        dateFormat.setCalendar(mCalendar);
+        char groupingSeparator = DecimalFormatSymbols.getInstance().getGroupingSeparator();
+
+        boolean changed = mDateFormat == null
+                || !dateFormat.equals(mDateFormat)
+                || !amString.equals(mAmString)
+                || !pmString.equals(mPmString)
+                || groupingSeparator != mGroupingSeparator;
+        mAmString = amString;
+        mPmString = pmString;
+        mDateFormat = dateFormat;
+        mGroupingSeparator = groupingSeparator;
+        return changed ? CHANGED_LOCALE : 0;
+    }
+
+    private void notifyChanged(int changes) {
+        if (changes == 0) {
+            return;
+        }
+        if (Log.isLoggable(TAG, Log.DEBUG)) {
+            Log.d(TAG, "Settings changed: " + Integer.toBinaryString(changes));
+        }
+        mListener.onSettingsChanged(changes);
+    }
+}
@@ -0,0 +1,127 @@
+/*
+ * Copyright (C) 2014 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.example.android.wearable.watchface;
+
+/**
+ * An immutable snapshot of the engine state that frames are drawn from and that callbacks on the
+ * main thread update: the data lines, the display mode and the rendering options. Geometry,
+ * including where a peeking card leaves room for the lines, is in the engine's
+ * {@link FaceLayout} instead.
+ * <p>
+ * The main thread publishes a new snapshot after every change and a frame reads one snapshot
+ * when it starts, so a frame never sees a half-applied update and the callbacks never wait for a
+ * frame in progress, whichever thread it is drawn on.
+ */
+final class FaceState {
+
+    static final FaceState INITIAL = new Builder().build();
+
+    final boolean ambient;
+    final boolean idle;
+    final boolean smoothSeconds;
+    /** Whether the time line is blitted from glyph atlases rather than drawn as text. */
+    final boolean glyphAtlas;
+
+    final int stepsTotal;
+    final float batteryPercentage;
+    final float batteryDevicePercentage;
+    final boolean batteryDeviceReceived;
+    final FitnessTotals fitness;
+
+    private FaceState(Builder builder) {
+        ambient = builder.mAmbient;
+        idle = builder.mIdle;
+        smoothSeconds = builder.mSmoothSeconds;
+        glyphAtlas = builder.mGlyphAtlas;
+        stepsTotal = builder.mStepsTotal;
+        batteryPercentage = builder.mBatteryPercentage;
+        batteryDevicePercentage = builder.mBatteryDevicePercentage;
+        batteryDeviceReceived = builder.mBatteryDeviceReceived;
+        fitness = builder.mFitness;
+    }
+
+    /** Returns a builder initialized with this snapshot. */
+    Builder buildUpon() {
+        return new Builder()
+                .setAmbient(ambient)
+                .setIdle(idle)
+                .setSmoothSeconds(smoothSeconds)
+                .setGlyphAtlas(glyphAtlas)
+                .setStepsTotal(stepsTotal)
+                .setBatteryPercentage(batteryPercentage)
+                .setBatteryDevicePercentage(batteryDevicePercentage, batteryDeviceReceived)
+                .setFitness(fitness);
+    }
+
+    static final class Builder {
+
+        private boolean mAmbient;
+        private boolean mIdle;
+        private boolean mSmoothSeconds;
+        private boolean mGlyphAtlas = true;
+        private int mStepsTotal;
+        private float mBatteryPercentage;
+        private float mBatteryDevicePercentage;
+        private boolean mBatteryDeviceReceived;
+        private FitnessTotals mFitness = FitnessTotals.NONE;
+
+        Builder setAmbient(boolean ambient) {
+            mAmbient = ambient;
+            return this;
+        }
+
+        Builder setIdle(boolean idle) {
+            mIdle = idle;
+            return this;
+        }
+
+        Builder setSmoothSeconds(boolean smoothSeconds) {
+            mSmoothSeconds = smoothSeconds;
+            return this;
+        }
+
+        Builder setGlyphAtlas(boolean glyphAtlas) {
+            mGlyphAtlas = glyphAtlas;
+            return this;
+        }
+
+        Builder setStepsTotal(int stepsTotal) {
+            mStepsTotal = stepsTotal;
+            return this;
+        }
+
+        Builder setBatteryPercentage(float batteryPercentage) {
+            mBatteryPercentage = batteryPercentage;
+            return this;
+        }
+
+        Builder setBatteryDevicePercentage(float batteryDevicePercentage, boolean received) {
+            mBatteryDevicePercentage = batteryDevicePercentage;
+            mBatteryDeviceReceived = received;
+            return this;
+        }
+
+        Builder setFitness(FitnessTotals fitness) {
+            mFitness = fitness;
+            return this;
+        }
+
+        FaceState build() {
+            return new FaceState(this);
+        }
+    }
+}
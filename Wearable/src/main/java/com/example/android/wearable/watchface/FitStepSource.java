@@ -0,0 +1,63 @@
+/*
+ * Copyright (C) 2014 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.example.android.wearable.watchface;
+
+
+import java.io.PrintWriter;
+
+/**
+ * Takes today's step total from the Google Fit history: every {@link #refresh()} asks the
+ * {@link FitnessTotalsFetcher} for a fetch cycle covering the steps, and the total comes back
+ * through {@link #onFitSteps(int)}. The fetcher keeps at most one cycle in flight; refreshes
+ * while one is pending are refused.
+ */
+final class FitStepSource implements StepSource {
+
+    private final FitnessTotalsFetcher mFetcher;
+    private final Listener mListener;
+
+    FitStepSource(FitnessTotalsFetcher fetcher, Listener listener) {
+        mFetcher = fetcher;
+        mListener = listener;
+    }
+
+    @Override
+    public void start() {
+        // Nothing to register: the history is only read on refresh.
+    }
+
+    @Override
+    public void stop() {
+    }
+
+    @Override
+    public boolean refresh() {
+        return mFetcher.fetch(System.currentTimeMillis(),
+                FitnessTotals.bit(FitnessTotals.METRIC_STEPS));
+    }
+
+    @Override
+    public void onFitSteps(int stepsToday) {
+        mListener.onStepsChanged(stepsToday);
+    }
+
+    @Override
+    public void dump(PrintWriter writer, String prefix) {
+        writer.print(prefix);
+        writer.println("step source: fit");
+    }
+}
@@ -0,0 +1,89 @@
+/*
+ * Copyright (C) 2014 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.example.android.wearable.watchface;
+
+
+/**
+ * An immutable snapshot of today's Google Fit totals, as merged by one
+ * {@link FitnessTotalsFetcher} fetch cycle, with when each metric was last read. A metric that
+ * was never read successfully has a fetch time of zero.
+ */
+final class FitnessTotals {
+
+    static final int METRIC_STEPS = 0;
+    static final int METRIC_DISTANCE = 1;
+    static final int METRIC_CALORIES = 2;
+    static final int METRIC_COUNT = 3;
+
+    static final FitnessTotals NONE = new FitnessTotals(0, 0, 0, 0, 0, 0);
+
+    final int steps;
+    final float distanceMeters;
+    final float calories;
+
+    private final long mStepsFetchedMs;
+    private final long mDistanceFetchedMs;
+    private final long mCaloriesFetchedMs;
+
+    FitnessTotals(int steps, float distanceMeters, float calories, long stepsFetchedMs,
+            long distanceFetchedMs, long caloriesFetchedMs) {
+        this.steps = steps;
+        this.distanceMeters = distanceMeters;
+        this.calories = calories;
+        mStepsFetchedMs = stepsFetchedMs;
+        mDistanceFetchedMs = distanceFetchedMs;
+        mCaloriesFetchedMs = caloriesFetchedMs;
+    }
+
+    /** Returns the bit of {@code metric} in the metric masks of {@link FitnessTotalsFetcher}. */
+    static int bit(int metric) {
+        return 1 << metric;
+    }
+
+    /** Returns when {@code metric} was last read, zero if never. */
+    long getFetchedMs(int metric) {
+        switch (metric) {
+            case METRIC_STEPS:
+                return mStepsFetchedMs;
+            case METRIC_DISTANCE:
+                return mDistanceFetchedMs;
+            case METRIC_CALORIES:
+                return mCaloriesFetchedMs;
+            default:
+                throw new IllegalArgumentException("Unknown metric: " + metric);
+        }
+    }
+
+    /** Returns whether {@code metric} was ever read. */
+    boolean has(int metric) {
+        return getFetchedMs(metric) != 0;
+    }
+
+    /** Returns the value of {@code metric}, steps as a float. */
+    float getValue(int metric) {
+        switch (metric) {
+            case METRIC_STEPS:
+                return steps;
+            case METRIC_DISTANCE:
+                return distanceMeters;
+            case METRIC_CALORIES:
+                return calories;
+            default:
+                throw new IllegalArgumentException("Unknown metric: " + metric);
+        }
+    }
+}
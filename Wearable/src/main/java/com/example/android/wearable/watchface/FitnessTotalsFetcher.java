@@ -0,0 +1,239 @@
+/*
+ * Copyright (C) 2014 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.example.android.wearable.watchface;
+
+
+import com.google.android.gms.common.api.GoogleApiClient;
+import com.google.android.gms.common.api.ResultCallback;
+import com.google.android.gms.fitness.Fitness;
+import com.google.android.gms.fitness.data.DataPoint;
+import com.google.android.gms.fitness.data.DataType;
+import com.google.android.gms.fitness.data.Field;
+import com.google.android.gms.fitness.result.DailyTotalResult;
+
+import android.util.Log;
+
+import java.io.PrintWriter;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Reads today's step, distance and calorie totals from the Google Fit history in fetch cycles.
+ * <p>
+ * A cycle issues the {@code readDailyTotal} queries of every metric it covers at once, waits
+ * for all of them, and then merges the results into one new {@link FitnessTotals} delivered in a
+ * single listener call, so the watch face repaints once per cycle rather than once per metric.
+ * Only one cycle is in flight at a time. A cycle cut short by a disconnect must be
+ * {@link #cancel() cancelled}, since its results may never arrive.
+ * <p>
+ * Each metric has its own staleness limit: a cycle covers the metrics it is asked for plus
+ * every other metric read longer ago than its limit. Distance changes with the steps but matters
+ * less, and calories also accrue at rest and are only worth a query now and then.
+ */
+final class FitnessTotalsFetcher {
+
+    private static final String TAG = "WatchFaceTCC";
+
+    /**
+     * How long each metric, indexed by the METRIC_ constants, stays fresh. Steps never go stale
+     * here: the step source asks for them on its own schedule.
+     */
+    private static final long[] MAX_AGE_MS = {
+            Long.MAX_VALUE,
+            TimeUnit.MINUTES.toMillis(5),
+            TimeUnit.MINUTES.toMillis(15)};
+
+    private static final DataType[] DATA_TYPES = {
+            DataType.TYPE_STEP_COUNT_DELTA,
+            DataType.TYPE_DISTANCE_DELTA,
+            DataType.TYPE_CALORIES_EXPENDED};
+
+    private static final Field[] FIELDS = {
+            Field.FIELD_STEPS,
+            Field.FIELD_DISTANCE,
+            Field.FIELD_CALORIES};
+
+    private static final String[] METRIC_NAMES = {"steps", "distance", "calories"};
+
+    interface Listener {
+        /**
+         * Called on the main thread when a cycle completed.
+         *
+         * @param fetchedMetrics the bits, see {@link FitnessTotals#bit}, of the metrics read
+         *                       successfully in this cycle
+         */
+        void onTotalsFetched(FitnessTotals totals, int fetchedMetrics);
+    }
+
+    private final GoogleApiClient mGoogleApiClient;
+    private final Listener mListener;
+
+    private FitnessTotals mTotals = FitnessTotals.NONE;
+
+    // The cycle in flight: the metrics still pending, those read so far and their values.
+    private int mCycle;
+    private int mPendingMetrics;
+    private int mFetchedMetrics;
+    private final float[] mValues = new float[FitnessTotals.METRIC_COUNT];
+
+    private long mCycleCount;
+    private final long[] mQueryCounts = new long[FitnessTotals.METRIC_COUNT];
+    private final long[] mFailureCounts = new long[FitnessTotals.METRIC_COUNT];
+
+    FitnessTotalsFetcher(GoogleApiClient googleApiClient, Listener listener) {
+        mGoogleApiClient = googleApiClient;
+        mListener = listener;
+    }
+
+    /** Returns the totals of the last completed cycle. */
+    FitnessTotals getTotals() {
+        return mTotals;
+    }
+
+    /**
+     * Starts a cycle for the metrics in {@code metrics} and every stale one.
+     *
+     * @return whether a cycle was started; {@code false} if one is still in flight, the client
+     *         is not connected or nothing needs to be read
+     */
+    boolean fetch(long nowMs, int metrics) {
+        if (mPendingMetrics != 0 || !mGoogleApiClient.isConnected()) {
+            return false;
+        }
+        for (int metric = 0; metric < FitnessTotals.METRIC_COUNT; metric++) {
+            if (nowMs - mTotals.getFetchedMs(metric) >= MAX_AGE_MS[metric]) {
+                metrics |= FitnessTotals.bit(metric);
+            }
+        }
+        if (metrics == 0) {
+            return false;
+        }
+        if (Log.isLoggable(TAG, Log.DEBUG)) {
+            Log.d(TAG, "Fitness fetch cycle for metrics " + Integer.toBinaryString(metrics));
+        }
+
+        mCycleCount++;
+        mCycle++;
+        mPendingMetrics = metrics;
+        mFetchedMetrics = 0;
+        for (int metric = 0; metric < FitnessTotals.METRIC_COUNT; metric++) {
+            mValues[metric] = mTotals.getValue(metric);
+        }
+        // All bits are set before the first query, so a result delivered right away cannot
+        // complete the cycle early.
+        for (int metric = 0; metric < FitnessTotals.METRIC_COUNT; metric++) {
+            if ((metrics & FitnessTotals.bit(metric)) != 0) {
+                mQueryCounts[metric]++;
+                Fitness.HistoryApi.readDailyTotal(mGoogleApiClient, DATA_TYPES[metric])
+                        .setResultCallback(new MetricCallback(mCycle, metric));
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Drops the cycle in flight, if any, so that the next {@link #fetch} can start one. Results
+     * of the dropped cycle that still arrive are ignored.
+     */
+    void cancel() {
+        if (mPendingMetrics != 0) {
+            mCycle++;
+            mPendingMetrics = 0;
+        }
+    }
+
+    private void onMetricResult(int metric, DailyTotalResult result) {
+        if (result.getStatus().isSuccess()) {
+            List<DataPoint> points = result.getTotal().getDataPoints();
+            // No data point means nothing was recorded today yet.
+            if (points.isEmpty()) {
+                mValues[metric] = 0;
+            } else if (metric == FitnessTotals.METRIC_STEPS) {
+                mValues[metric] = points.get(0).getValue(FIELDS[metric]).asInt();
+            } else {
+                mValues[metric] = points.get(0).getValue(FIELDS[metric]).asFloat();
+            }
+            mFetchedMetrics |= FitnessTotals.bit(metric);
+        } else {
+            mFailureCounts[metric]++;
+            Log.e(TAG, "readDailyTotal(" + METRIC_NAMES[metric] + ") failed! "
+                    + result.getStatus().getStatusMessage());
+        }
+
+        mPendingMetrics &= ~FitnessTotals.bit(metric);
+        if (mPendingMetrics == 0) {
+            completeCycle(System.currentTimeMillis());
+        }
+    }
+
+    private void completeCycle(long nowMs) {
+        long[] fetchedMs = new long[FitnessTotals.METRIC_COUNT];
+        for (int metric = 0; metric < FitnessTotals.METRIC_COUNT; metric++) {
+            fetchedMs[metric] = (mFetchedMetrics & FitnessTotals.bit(metric)) != 0
+                    ? nowMs : mTotals.getFetchedMs(metric);
+        }
+        mTotals = new FitnessTotals((int) mValues[FitnessTotals.METRIC_STEPS],
+                mValues[FitnessTotals.METRIC_DISTANCE], mValues[FitnessTotals.METRIC_CALORIES],
+                fetchedMs[FitnessTotals.METRIC_STEPS], fetchedMs[FitnessTotals.METRIC_DISTANCE],
+                fetchedMs[FitnessTotals.METRIC_CALORIES]);
+        mListener.onTotalsFetched(mTotals, mFetchedMetrics);
+    }
+
+    void dump(PrintWriter writer, String prefix, long nowMs) {
+        writer.print(prefix);
+        writer.print("fitness totals: cycles=");
+        writer.print(mCycleCount);
+        writer.print(" pending=");
+        writer.println(Integer.toBinaryString(mPendingMetrics));
+        for (int metric = 0; metric < FitnessTotals.METRIC_COUNT; metric++) {
+            writer.print(prefix);
+            writer.print("  ");
+            writer.print(METRIC_NAMES[metric]);
+            writer.print(": value=");
+            writer.print(mTotals.getValue(metric));
+            writer.print(" queries=");
+            writer.print(mQueryCounts[metric]);
+            writer.print(" failed=");
+            writer.print(mFailureCounts[metric]);
+            writer.print(" age=");
+            writer.print(mTotals.has(metric)
+                    ? TimeUnit.MILLISECONDS.toSeconds(nowMs - mTotals.getFetchedMs(metric)) + "s"
+                    : "never");
+            writer.print(" maxAge=");
+            writer.println(MAX_AGE_MS[metric] == Long.MAX_VALUE
+                    ? "none" : TimeUnit.MILLISECONDS.toSeconds(MAX_AGE_MS[metric]) + "s");
+        }
+    }
+
+    private final class MetricCallback implements ResultCallback<DailyTotalResult> {
+
+        private final int mCycle;
+        private final int mMetric;
+
+        MetricCallback(int cycle, int metric) {
+            mCycle = cycle;
+            mMetric = metric;
+        }
+
+        @Override
+        public void onResult(DailyTotalResult result) {
+            if (mCycle == FitnessTotalsFetcher.this.mCycle) {
+                onMetricResult(mMetric, result);
+            }
+        }
+    }
+}
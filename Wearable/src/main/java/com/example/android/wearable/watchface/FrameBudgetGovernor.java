@@ -0,0 +1,176 @@
+/*
+ * Copyright (C) 2014 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.example.android.wearable.watchface;
+
+import java.io.PrintWriter;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Watches the cost of interactive frames and trades rendering quality for time when they keep
+ * going over budget, e.g. on a slow or thermally throttled watch.
+ * <p>
+ * Two kinds of frames are measured: full frames, which blit the cached layers and rebuild the
+ * ones that went stale, and partial frames, which redraw only the seconds digits or the part of
+ * the arc that grew straight onto the surface. Each kind has its own window of its last
+ * {@link #WINDOW} frames, since partial frames come every second (or every arc frame) and full
+ * frames about once a minute, and mixing them would dilute the expensive full frames. Quality is
+ * lowered one stage once {@link #DOWNGRADE_COUNT} frames of either window went over budget.
+ * Counting over a window rather than a streak matters because the expensive frames, the ones
+ * rebuilding a layer, are interleaved with cheap ones.
+ * <p>
+ * Quality is raised one stage again once no frame of either kind took more than half the budget
+ * for {@link #UPGRADE_QUIET_MS}, with at least {@link #UPGRADE_FULL_FRAMES} full frames in that
+ * time, so that it does not flap around the threshold. Going by time rather than by a frame count
+ * keeps the recovery time the same however few full frames are drawn.
+ * <p>
+ * Frames are recorded on whichever thread draws them, while the main thread reads the quality
+ * level, so every method is synchronized.
+ */
+final class FrameBudgetGovernor {
+
+    /** Everything is drawn. */
+    static final int QUALITY_FULL = 0;
+    /** Text is drawn without anti-aliasing. */
+    static final int QUALITY_NO_ANTI_ALIAS = 1;
+    /** As above, and the background bitmap is replaced by a flat colour. */
+    static final int QUALITY_FLAT_BACKGROUND = 2;
+    /** As above, and only the time is drawn: no date, steps or battery lines. */
+    static final int QUALITY_NO_SECONDARY_LINES = 3;
+
+    private static final String[] QUALITY_NAMES =
+            {"full", "no anti-alias", "flat background", "no secondary lines"};
+
+    /** A frame that drew the whole surface from the cached layers. */
+    static final int FRAME_FULL = 0;
+    /** A frame that only redrew the seconds or the arc onto the surface. */
+    static final int FRAME_PARTIAL = 1;
+
+    private static final String[] FRAME_NAMES = {"full", "partial"};
+
+    static final int DEFAULT_BUDGET_MS = 12;
+
+    private static final int WINDOW = 16;
+    private static final int WINDOW_MASK = (1 << WINDOW) - 1;
+    private static final int DOWNGRADE_COUNT = 3;
+    private static final long UPGRADE_QUIET_MS = TimeUnit.MINUTES.toMillis(2);
+    private static final int UPGRADE_FULL_FRAMES = 2;
+
+    private long mBudgetNs = TimeUnit.MILLISECONDS.toNanos(DEFAULT_BUDGET_MS);
+    private int mQuality = QUALITY_FULL;
+    /** Per frame kind, one bit per recent frame, the latest in bit 0: whether it was over. */
+    private final int[] mOverBits = new int[FRAME_NAMES.length];
+    /** When the last frame over half the budget was drawn, or the quality last changed. */
+    private long mQuietSinceMs = -1;
+    /** Full frames drawn since {@link #mQuietSinceMs}. */
+    private int mQuietFullFrames;
+    private final long[] mFrameCounts = new long[FRAME_NAMES.length];
+    private long mDowngrades;
+    private long mUpgrades;
+
+    /** Sets the frame budget; 0 disables the governor and restores full quality. */
+    synchronized void setBudgetMs(int budgetMs) {
+        mBudgetNs = TimeUnit.MILLISECONDS.toNanos(Math.max(0, budgetMs));
+        clearWindows();
+        mQuietSinceMs = -1;
+        if (mBudgetNs == 0) {
+            mQuality = QUALITY_FULL;
+        }
+    }
+
+    synchronized int getQuality() {
+        return mQuality;
+    }
+
+    /**
+     * Records the duration of an interactive frame of the given {@code FRAME_*} kind, drawn at
+     * {@code nowMs} in wall clock time.
+     *
+     * @return whether the quality level changed
+     */
+    synchronized boolean recordFrame(int kind, long durationNs, long nowMs) {
+        if (mBudgetNs == 0) {
+            return false;
+        }
+        mFrameCounts[kind]++;
+        boolean over = durationNs > mBudgetNs;
+        mOverBits[kind] = (mOverBits[kind] << 1 | (over ? 1 : 0)) & WINDOW_MASK;
+        if (over && Integer.bitCount(mOverBits[kind]) >= DOWNGRADE_COUNT
+                && mQuality < QUALITY_NO_SECONDARY_LINES) {
+            // The frames of the new stage start new windows and a new quiet time.
+            clearWindows();
+            startQuiet(nowMs);
+            mQuality++;
+            mDowngrades++;
+            return true;
+        }
+        if (durationNs > mBudgetNs / 2 || mQuietSinceMs < 0 || nowMs < mQuietSinceMs) {
+            // Not cheap, or there is no quiet time to go by yet or the clock went back.
+            startQuiet(nowMs);
+            return false;
+        }
+        if (kind == FRAME_FULL) {
+            mQuietFullFrames++;
+        }
+        if (mQuality > QUALITY_FULL && mQuietFullFrames >= UPGRADE_FULL_FRAMES
+                && nowMs - mQuietSinceMs >= UPGRADE_QUIET_MS) {
+            clearWindows();
+            startQuiet(nowMs);
+            mQuality--;
+            mUpgrades++;
+            return true;
+        }
+        return false;
+    }
+
+    private void clearWindows() {
+        for (int kind = 0; kind < mOverBits.length; kind++) {
+            mOverBits[kind] = 0;
+        }
+    }
+
+    private void startQuiet(long nowMs) {
+        mQuietSinceMs = nowMs;
+        mQuietFullFrames = 0;
+    }
+
+    synchronized void dump(PrintWriter writer, String prefix) {
+        writer.print(prefix);
+        writer.print("frame budget: ");
+        writer.print(TimeUnit.NANOSECONDS.toMillis(mBudgetNs));
+        writer.print("ms, quality=");
+        writer.print(QUALITY_NAMES[mQuality]);
+        writer.print(" downgrades=");
+        writer.print(mDowngrades);
+        writer.print(" upgrades=");
+        writer.println(mUpgrades);
+        writer.print(prefix);
+        writer.print("  frames measured:");
+        for (int kind = 0; kind < FRAME_NAMES.length; kind++) {
+            writer.print(' ');
+            writer.print(FRAME_NAMES[kind]);
+            writer.print('=');
+            writer.print(mFrameCounts[kind]);
+            writer.print(" (");
+            writer.print(Integer.bitCount(mOverBits[kind]));
+            writer.print(" of the last ");
+            writer.print(WINDOW);
+            writer.print(" over)");
+        }
+        writer.print(" quiet full frames=");
+        writer.println(mQuietFullFrames);
+    }
+}
@@ -0,0 +1,189 @@
+/*
+ * Copyright (C) 2014 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.example.android.wearable.watchface;
+
+import java.io.PrintWriter;
+
+/**
+ * Always-on render statistics for one engine: draw duration histograms for interactive, partial
+ * (seconds only) and ambient frames, how many pixels the interactive frames filled, and how late
+ * the interactive tick fired compared to the second boundary it was scheduled for. Recording is
+ * a few array writes, with no allocation, so it can stay enabled on every frame. The numbers are
+ * printed through {@code dumpsys}.
+ * <p>
+ * Ticks are recorded on the main thread and frames on whichever thread draws them, so the
+ * methods synchronize on the instance; the lock is held for a few array writes at a time.
+ */
+final class FrameStats {
+
+    /** Upper bounds, in microseconds, of the draw duration buckets. The last bucket is open. */
+    private static final long[] DRAW_BUCKETS_US =
+            {250, 500, 1000, 2000, 4000, 8000, 16000, 33000, 66000};
+
+    /** Upper bounds, in milliseconds, of the tick lateness buckets. The last bucket is open. */
+    private static final long[] LATENESS_BUCKETS_MS = {1, 2, 5, 10, 20, 50, 100, 250, 500};
+
+    private final Histogram mInteractiveDraw = new Histogram(DRAW_BUCKETS_US);
+    private final Histogram mPartialDraw = new Histogram(DRAW_BUCKETS_US);
+    private final Histogram mAmbientDraw = new Histogram(DRAW_BUCKETS_US);
+    private final Histogram mTickLateness = new Histogram(LATENESS_BUCKETS_MS);
+
+    private long mDroppedTicks;
+
+    /** Pixels the interactive frames locked, and what full-frame draws would have locked. */
+    private long mFilledPixels;
+    private long mSurfacePixels;
+
+    /** Records the duration of one {@code onDraw} call. */
+    synchronized void recordDraw(boolean ambient, long durationNs) {
+        (ambient ? mAmbientDraw : mInteractiveDraw).record(durationNs / 1000);
+    }
+
+    /** Records the pixels of a full interactive frame. */
+    synchronized void recordFullFill(int surfacePixels) {
+        mFilledPixels += surfacePixels;
+        mSurfacePixels += surfacePixels;
+    }
+
+    /** Records a frame that only locked and redrew {@code dirtyPixels} of the surface. */
+    synchronized void recordPartialDraw(long durationNs, int dirtyPixels, int surfacePixels) {
+        mPartialDraw.record(durationNs / 1000);
+        mFilledPixels += dirtyPixels;
+        mSurfacePixels += surfacePixels;
+    }
+
+    /**
+     * Records a tick that fired at {@code actualMs} although it was due at {@code targetMs}.
+     * Every whole {@code intervalMs} of lateness counts as a dropped tick.
+     */
+    synchronized void recordTick(long targetMs, long actualMs, long intervalMs) {
+        long latenessMs = Math.max(0, actualMs - targetMs);
+        mTickLateness.record(latenessMs);
+        mDroppedTicks += latenessMs / intervalMs;
+    }
+
+    synchronized void dump(PrintWriter writer, String prefix) {
+        mInteractiveDraw.dump(writer, prefix, "interactive draw", "us");
+        mPartialDraw.dump(writer, prefix, "partial draw", "us");
+        mAmbientDraw.dump(writer, prefix, "ambient draw", "us");
+        mTickLateness.dump(writer, prefix, "tick lateness", "ms");
+        writer.print(prefix);
+        writer.print("dropped ticks: ");
+        writer.println(mDroppedTicks);
+        writer.print(prefix);
+        writer.print("interactive fill: ");
+        writer.print(mFilledPixels);
+        writer.print(" of ");
+        writer.print(mSurfacePixels);
+        writer.print(" px (");
+        writer.print(mSurfacePixels == 0 ? 0 : mFilledPixels * 100 / mSurfacePixels);
+        writer.println("%)");
+    }
+
+    /** A histogram over fixed bucket bounds, plus count, sum and max. */
+    static final class Histogram {
+
+        private final long[] mBounds;
+        private final long[] mCounts;
+        private long mCount;
+        private long mSum;
+        private long mMax;
+
+        Histogram(long[] bounds) {
+            mBounds = bounds;
+            mCounts = new long[bounds.length + 1];
+        }
+
+        void record(long value) {
+            int bucket = 0;
+            while (bucket < mBounds.length && value > mBounds[bucket]) {
+                bucket++;
+            }
+            mCounts[bucket]++;
+            mCount++;
+            mSum += value;
+            if (value > mMax) {
+                mMax = value;
+            }
+        }
+
+        long getCount() {
+            return mCount;
+        }
+
+        long getMean() {
+            return mCount == 0 ? 0 : mSum / mCount;
+        }
+
+        /**
+         * Returns the upper bound of the bucket holding the given percentile, or {@link #mMax}
+         * when it falls into the open last bucket.
+         */
+        long getPercentile(int percentile) {
+            if (mCount == 0) {
+                return 0;
+            }
+            long rank = (mCount * percentile + 99) / 100;
+            long seen = 0;
+            for (int bucket = 0; bucket < mBounds.length; bucket++) {
+                seen += mCounts[bucket];
+                if (seen >= rank) {
+                    return mBounds[bucket];
+                }
+            }
+            return mMax;
+        }
+
+        void dump(PrintWriter writer, String prefix, String name, String unit) {
+            writer.print(prefix);
+            writer.print(name);
+            writer.print(": count=");
+            writer.print(mCount);
+            writer.print(" mean=");
+            writer.print(getMean());
+            writer.print(unit);
+            writer.print(" p50<=");
+            writer.print(getPercentile(50));
+            writer.print(unit);
+            writer.print(" p90<=");
+            writer.print(getPercentile(90));
+            writer.print(unit);
+            writer.print(" p99<=");
+            writer.print(getPercentile(99));
+            writer.print(unit);
+            writer.print(" max=");
+            writer.print(mMax);
+            writer.println(unit);
+
+            writer.print(prefix);
+            writer.print("  buckets:");
+            for (int bucket = 0; bucket < mCounts.length; bucket++) {
+                writer.print(' ');
+                if (bucket < mBounds.length) {
+                    writer.print("<=");
+                    writer.print(mBounds[bucket]);
+                } else {
+                    writer.print('>');
+                    writer.print(mBounds[bucket - 1]);
+                }
+                writer.print('=');
+                writer.print(mCounts[bucket]);
+            }
+            writer.println();
+        }
+    }
+}
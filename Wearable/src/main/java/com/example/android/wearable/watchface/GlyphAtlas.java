@@ -0,0 +1,162 @@
+/*
+ * Copyright (C) 2014 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.example.android.wearable.watchface;
+
+import android.graphics.Bitmap;
+import android.graphics.Canvas;
+import android.graphics.Paint;
+import android.graphics.Rect;
+import android.graphics.Typeface;
+
+/**
+ * Pre-renders the glyphs used by the interactive time line (0-9 and ':') of a single
+ * {@link Paint} into one bitmap, so that each frame can blit them with
+ * {@link Canvas#drawBitmap(Bitmap, Rect, Rect, Paint)} instead of shaping and rasterizing text.
+ * <p>
+ * The atlas remembers the text size, typeface, anti-aliasing and color it was built with and
+ * rebuilds itself lazily the next time it is used after any of them changed, or after
+ * {@link #invalidate()} was called.
+ */
+final class GlyphAtlas {
+
+    private static final String CHARS = "0123456789:";
+    private static final int CELL_PADDING = 2;
+
+    private final Paint mPaint;
+
+    private final Rect mSrc = new Rect();
+    private final Rect mDst = new Rect();
+
+    /** Left edge of each cell in the atlas bitmap, in the order of {@link #CHARS}. */
+    private final int[] mCellLeft = new int[CHARS.length()];
+    private final float[] mCellAdvance = new float[CHARS.length()];
+
+    private Bitmap mBitmap;
+    private int mAscent;
+    private int mCellHeight;
+
+    private float mBuiltTextSize;
+    private Typeface mBuiltTypeface;
+    private boolean mBuiltAntiAlias;
+    private int mBuiltColor;
+    private boolean mValid;
+
+    /**
+     * @param paint the paint the glyphs are rendered with; it is read again every time the atlas
+     *              checks whether it needs to be rebuilt
+     */
+    GlyphAtlas(Paint paint) {
+        mPaint = paint;
+    }
+
+    /** Forces the atlas to be rebuilt the next time it is drawn. */
+    void invalidate() {
+        mValid = false;
+    }
+
+    /** Releases the atlas bitmap. It is recreated on the next draw. */
+    void recycle() {
+        if (mBitmap != null) {
+            mBitmap.recycle();
+            mBitmap = null;
+        }
+        mValid = false;
+    }
+
+    /**
+     * Draws {@code count} chars of {@code text} starting at {@code start} with their baseline at
+     * {@code y}. Chars that are not part of the atlas are skipped.
+     *
+     * @return the x coordinate right after the last drawn glyph
+     */
+    float drawText(Canvas canvas, char[] text, int start, int count, float x, float y) {
+        ensureBuilt();
+        for (int i = start; i < start + count; i++) {
+            int cell = CHARS.indexOf(text[i]);
+            if (cell >= 0) {
+                x = drawCell(canvas, cell, x, y);
+            }
+        }
+        return x;
+    }
+
+    /** Returns the advance of {@code count} chars of {@code text}, as drawn by this atlas. */
+    float measureText(char[] text, int start, int count) {
+        ensureBuilt();
+        float width = 0;
+        for (int i = start; i < start + count; i++) {
+            int cell = CHARS.indexOf(text[i]);
+            if (cell >= 0) {
+                width += mCellAdvance[cell];
+            }
+        }
+        return width;
+    }
+
+    private float drawCell(Canvas canvas, int cell, float x, float y) {
+        int left = mCellLeft[cell];
+        int right = cell + 1 < mCellLeft.length ? mCellLeft[cell + 1] : mBitmap.getWidth();
+        mSrc.set(left, 0, right - CELL_PADDING, mCellHeight);
+
+        int dstLeft = Math.round(x);
+        int dstTop = Math.round(y) - mAscent;
+        mDst.set(dstLeft, dstTop, dstLeft + mSrc.width(), dstTop + mCellHeight);
+        canvas.drawBitmap(mBitmap, mSrc, mDst, null);
+        return x + mCellAdvance[cell];
+    }
+
+    private void ensureBuilt() {
+        if (mValid
+                && mBitmap != null
+                && mBuiltTextSize == mPaint.getTextSize()
+                && mBuiltTypeface == mPaint.getTypeface()
+                && mBuiltAntiAlias == mPaint.isAntiAlias()
+                && mBuiltColor == mPaint.getColor()) {
+            return;
+        }
+        build();
+    }
+
+    private void build() {
+        Paint.FontMetricsInt metrics = mPaint.getFontMetricsInt();
+        mAscent = -metrics.ascent;
+        mCellHeight = Math.max(1, metrics.descent - metrics.ascent);
+
+        int width = 0;
+        for (int cell = 0; cell < mCellLeft.length; cell++) {
+            float advance = mPaint.measureText(CHARS, cell, cell + 1);
+            mCellLeft[cell] = width;
+            mCellAdvance[cell] = advance;
+            width += (int) Math.ceil(advance) + CELL_PADDING;
+        }
+
+        if (mBitmap != null) {
+            mBitmap.recycle();
+        }
+        mBitmap = Bitmap.createBitmap(Math.max(1, width), mCellHeight, Bitmap.Config.ARGB_8888);
+        Canvas canvas = new Canvas(mBitmap);
+        for (int cell = 0; cell < mCellLeft.length; cell++) {
+            canvas.drawText(CHARS, cell, cell + 1, mCellLeft[cell], mAscent, mPaint);
+        }
+
+        mBuiltTextSize = mPaint.getTextSize();
+        mBuiltTypeface = mPaint.getTypeface();
+        mBuiltAntiAlias = mPaint.isAntiAlias();
+        mBuiltColor = mPaint.getColor();
+        mValid = true;
+    }
+}
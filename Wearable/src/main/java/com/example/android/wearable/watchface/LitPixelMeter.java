@@ -0,0 +1,156 @@
+/*
+ * Copyright (C) 2014 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.example.android.wearable.watchface;
+
+import android.graphics.Bitmap;
+
+import java.io.PrintWriter;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Estimates how much of an OLED screen a frame lights up, which is what its power draw scales
+ * with. Frames are sampled from the bitmaps they are composited from, on a grid of every
+ * {@link #STRIDE}th pixel, at most once per {@link #SAMPLE_INTERVAL_MS} per mode, so the cost
+ * stays off the frames themselves.
+ */
+final class LitPixelMeter {
+
+    static final int MODE_INTERACTIVE = 0;
+    static final int MODE_AMBIENT = 1;
+    private static final int MODE_COUNT = 2;
+
+    private static final String[] MODE_NAMES = {"interactive", "ambient"};
+
+    /** Default share of lit pixels above which an ambient frame is reported as too bright. */
+    static final int DEFAULT_AMBIENT_LIMIT_PERCENT = 10;
+
+    private static final long SAMPLE_INTERVAL_MS = TimeUnit.MINUTES.toMillis(5);
+    private static final int STRIDE = 4;
+    /** Pixels whose brightest channel is at or below this count as off. */
+    private static final int LIT_LEVEL = 8;
+
+    private int[] mRow = new int[0];
+
+    private final long[] mLastSampleMs = new long[MODE_COUNT];
+    private final long[] mSampleCounts = new long[MODE_COUNT];
+    private final float[] mLitRatios = new float[MODE_COUNT];
+    private final float[] mMaxLitRatios = new float[MODE_COUNT];
+    private final float[] mLuminances = new float[MODE_COUNT];
+
+    private volatile float mAmbientLimit = DEFAULT_AMBIENT_LIMIT_PERCENT / 100f;
+    private long mAmbientOverLimitCount;
+
+    /**
+     * Sets the ambient lit pixel share, in percent, above which a frame is over the limit. May be
+     * called from any thread; the next sample uses it.
+     */
+    void setAmbientLimitPercent(int percent) {
+        mAmbientLimit = percent / 100f;
+    }
+
+    int getAmbientLimitPercent() {
+        return Math.round(mAmbientLimit * 100);
+    }
+
+    /** Returns whether a frame of {@code mode} should be sampled again. */
+    boolean isSampleDue(int mode, long nowMs) {
+        return mSampleCounts[mode] == 0 || nowMs - mLastSampleMs[mode] >= SAMPLE_INTERVAL_MS;
+    }
+
+    /**
+     * Samples a frame of {@code mode}.
+     *
+     * @return whether it is an ambient frame over the limit
+     */
+    boolean sample(int mode, Bitmap frame, long nowMs) {
+        int width = frame.getWidth();
+        int height = frame.getHeight();
+        if (mRow.length < width) {
+            mRow = new int[width];
+        }
+        long lit = 0;
+        long luma = 0;
+        long count = 0;
+        for (int y = 0; y < height; y += STRIDE) {
+            frame.getPixels(mRow, 0, width, 0, y, width, 1);
+            for (int x = 0; x < width; x += STRIDE) {
+                int pixel = mRow[x];
+                int r = (pixel >> 16) & 0xff;
+                int g = (pixel >> 8) & 0xff;
+                int b = pixel & 0xff;
+                if (Math.max(r, Math.max(g, b)) > LIT_LEVEL) {
+                    lit++;
+                }
+                // Rec. 601 luma in 8-bit fixed point.
+                luma += (77 * r + 150 * g + 29 * b) >> 8;
+                count++;
+            }
+        }
+        if (count == 0) {
+            return false;
+        }
+
+        float litRatio = lit / (float) count;
+        mLitRatios[mode] = litRatio;
+        mMaxLitRatios[mode] = Math.max(mMaxLitRatios[mode], litRatio);
+        mLuminances[mode] = luma / (255f * count);
+        mLastSampleMs[mode] = nowMs;
+        mSampleCounts[mode]++;
+
+        boolean overLimit = mode == MODE_AMBIENT && litRatio > mAmbientLimit;
+        if (overLimit) {
+            mAmbientOverLimitCount++;
+        }
+        return overLimit;
+    }
+
+    /** Returns the share of lit pixels in the last sampled frame of {@code mode}, 0 to 1. */
+    float getLitRatio(int mode) {
+        return mLitRatios[mode];
+    }
+
+    /** Returns the average luminance of the last sampled frame of {@code mode}, 0 to 1. */
+    float getLuminance(int mode) {
+        return mLuminances[mode];
+    }
+
+    long getSampleCount(int mode) {
+        return mSampleCounts[mode];
+    }
+
+    void dump(PrintWriter writer, String prefix) {
+        for (int mode = 0; mode < MODE_COUNT; mode++) {
+            writer.print(prefix);
+            writer.print("lit pixels ");
+            writer.print(MODE_NAMES[mode]);
+            writer.print(": ");
+            writer.print(Math.round(mLitRatios[mode] * 100));
+            writer.print("% (max ");
+            writer.print(Math.round(mMaxLitRatios[mode] * 100));
+            writer.print("%) luminance=");
+            writer.print(Math.round(mLuminances[mode] * 100));
+            writer.print("% samples=");
+            writer.println(mSampleCounts[mode]);
+        }
+        writer.print(prefix);
+        writer.print("ambient lit limit: ");
+        writer.print(getAmbientLimitPercent());
+        writer.print("%, exceeded in ");
+        writer.print(mAmbientOverLimitCount);
+        writer.println(" samples");
+    }
+}
@@ -0,0 +1,115 @@
+/*
+ * Copyright (C) 2014 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.example.android.wearable.watchface;
+
+import android.os.Handler;
+import android.os.HandlerThread;
+import android.os.Process;
+
+import java.io.PrintWriter;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * A dedicated thread that watch face frames are drawn on, so that callbacks queued on the main
+ * looper cannot delay them. Frame requests from any thread are merged until the render thread
+ * gets to them: however many arrive in between, the renderer is called once with all of them.
+ * Other work on the render state can be {@link #post posted} to run between frames.
+ */
+final class RenderThread {
+
+    /** The seconds digits changed. */
+    static final int FRAME_SECONDS = 1;
+    /** The smooth seconds arc moved. */
+    static final int FRAME_ARC = 1 << 1;
+    /** Anything else changed; the whole surface has to be drawn. */
+    static final int FRAME_FULL = 1 << 2;
+
+    interface Renderer {
+        /** Draws a frame on the render thread; {@code frames} holds the merged requests. */
+        void renderFrame(int frames);
+    }
+
+    private final Renderer mRenderer;
+    private final HandlerThread mThread;
+    private final Handler mHandler;
+    private final AtomicInteger mPending = new AtomicInteger();
+
+    /** Only for {@link #dump}; the request count is exact as long as one thread requests. */
+    private volatile long mRequestCount;
+    private volatile long mFrameCount;
+
+    private final Runnable mRenderRunnable = new Runnable() {
+        @Override
+        public void run() {
+            int frames = mPending.getAndSet(0);
+            if (frames != 0) {
+                mFrameCount++;
+                mRenderer.renderFrame(frames);
+            }
+        }
+    };
+
+    RenderThread(Renderer renderer) {
+        mRenderer = renderer;
+        mThread = new HandlerThread("WatchFaceRender", Process.THREAD_PRIORITY_DISPLAY);
+        mThread.start();
+        mHandler = new Handler(mThread.getLooper());
+    }
+
+    /** Requests a frame; may be called from any thread. */
+    void requestFrame(int frames) {
+        mRequestCount++;
+        int previous;
+        do {
+            previous = mPending.get();
+        } while (!mPending.compareAndSet(previous, previous | frames));
+        if (previous == 0) {
+            mHandler.post(mRenderRunnable);
+        }
+    }
+
+    /**
+     * Runs {@code task} on the render thread, between frames, dropping an earlier post of the
+     * same task that did not run yet. May be called from any thread.
+     */
+    void post(Runnable task) {
+        mHandler.removeCallbacks(task);
+        mHandler.post(task);
+    }
+
+    /**
+     * Stops the thread once the tasks already posted ran, dropping pending frame requests, and
+     * waits for it to finish.
+     */
+    void quit() {
+        mHandler.removeCallbacks(mRenderRunnable);
+        mThread.quitSafely();
+        try {
+            mThread.join();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    void dump(PrintWriter writer, String prefix) {
+        writer.print(prefix);
+        writer.print("render thread: requests=");
+        writer.print(mRequestCount);
+        writer.print(" frames=");
+        writer.println(mFrameCount);
+    }
+}
@@ -0,0 +1,130 @@
+/*
+ * Copyright (C) 2014 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.example.android.wearable.watchface;
+
+import android.graphics.Canvas;
+import android.graphics.Paint;
+import android.graphics.Rect;
+import android.graphics.RectF;
+
+/**
+ * A progress arc around the bezel that sweeps once a minute. Besides drawing it, it computes the
+ * small region of the surface that growing the arc from one time to another touches, so that an
+ * animation frame only has to lock and repaint that region.
+ */
+final class SecondsArc {
+
+    private static final long MINUTE_MS = 60 * 1000L;
+
+    /** Draw costs above which the frame rate is lowered. */
+    private static final long COST_60_FPS_NS = 2 * 1000 * 1000L;
+    private static final long COST_30_FPS_NS = 4 * 1000 * 1000L;
+
+    /** Battery levels below which the frame rate is lowered. */
+    private static final float BATTERY_60_FPS = 50f;
+    private static final float BATTERY_30_FPS = 20f;
+
+    private final Paint mPaint = new Paint();
+    private final RectF mOval = new RectF();
+    private float mCenterX;
+    private float mCenterY;
+    private float mRadius;
+
+    SecondsArc(int color, float strokeWidth) {
+        mPaint.setColor(color);
+        mPaint.setStyle(Paint.Style.STROKE);
+        mPaint.setStrokeWidth(strokeWidth);
+        mPaint.setStrokeCap(Paint.Cap.BUTT);
+        mPaint.setAntiAlias(true);
+    }
+
+    /** Places the arc just inside the edge of a {@code width} x {@code height} surface. */
+    void setSurfaceSize(int width, int height) {
+        mCenterX = width / 2f;
+        mCenterY = height / 2f;
+        mRadius = Math.min(width, height) / 2f - mPaint.getStrokeWidth();
+        mOval.set(mCenterX - mRadius, mCenterY - mRadius, mCenterX + mRadius, mCenterY + mRadius);
+    }
+
+    void setAntiAlias(boolean antiAlias) {
+        mPaint.setAntiAlias(antiAlias);
+    }
+
+    /** Draws the arc for {@code msOfMinute} milliseconds into the current minute. */
+    void draw(Canvas canvas, long msOfMinute) {
+        canvas.drawArc(mOval, -90f, sweepAngle(msOfMinute), false, mPaint);
+    }
+
+    /**
+     * Sets {@code out} to the region that changes when the arc moves from {@code fromMs} to
+     * {@code toMs} into the minute. When the minute wrapped, that is the whole arc.
+     */
+    void getDirtyBounds(long fromMs, long toMs, Rect out) {
+        float halfStroke = mPaint.getStrokeWidth() / 2 + 1;
+        if (toMs < fromMs) {
+            out.set((int) Math.floor(mOval.left - halfStroke),
+                    (int) Math.floor(mOval.top - halfStroke),
+                    (int) Math.ceil(mOval.right + halfStroke),
+                    (int) Math.ceil(mOval.bottom + halfStroke));
+            return;
+        }
+        double from = Math.toRadians(sweepAngle(fromMs) - 90);
+        double to = Math.toRadians(sweepAngle(toMs) - 90);
+        float left = Math.min(pointX(from), pointX(to));
+        float right = Math.max(pointX(from), pointX(to));
+        float top = Math.min(pointY(from), pointY(to));
+        float bottom = Math.max(pointY(from), pointY(to));
+        // The extremes of the circle lie at multiples of 90 degrees; include any that were passed.
+        for (int quarter = -1; quarter <= 3; quarter++) {
+            double angle = quarter * Math.PI / 2;
+            if (angle > from && angle < to) {
+                left = Math.min(left, pointX(angle));
+                right = Math.max(right, pointX(angle));
+                top = Math.min(top, pointY(angle));
+                bottom = Math.max(bottom, pointY(angle));
+            }
+        }
+        out.set((int) Math.floor(left - halfStroke), (int) Math.floor(top - halfStroke),
+                (int) Math.ceil(right + halfStroke), (int) Math.ceil(bottom + halfStroke));
+    }
+
+    /**
+     * Picks the animation frame rate, 15, 30 or 60 fps, from the measured cost of an arc frame
+     * and the battery level.
+     */
+    static int selectFps(long frameCostNs, float batteryPercentage) {
+        if (frameCostNs > COST_30_FPS_NS || batteryPercentage < BATTERY_30_FPS) {
+            return 15;
+        }
+        if (frameCostNs > COST_60_FPS_NS || batteryPercentage < BATTERY_60_FPS) {
+            return 30;
+        }
+        return 60;
+    }
+
+    private static float sweepAngle(long msOfMinute) {
+        return 360f * msOfMinute / MINUTE_MS;
+    }
+
+    private float pointX(double angle) {
+        return mCenterX + (float) (mRadius * Math.cos(angle));
+    }
+
+    private float pointY(double angle) {
+        return mCenterY + (float) (mRadius * Math.sin(angle));
+    }
+}
@@ -0,0 +1,350 @@
+/*
+ * Copyright (C) 2014 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.example.android.wearable.watchface;
+
+
+import android.content.Context;
+import android.content.SharedPreferences;
+import android.hardware.Sensor;
+import android.hardware.SensorEvent;
+import android.hardware.SensorEventListener2;
+import android.hardware.SensorManager;
+import android.os.Handler;
+import android.os.SystemClock;
+import android.util.Log;
+
+import java.io.PrintWriter;
+import java.util.TimeZone;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Counts today's steps with the hardware step counter instead of querying Google Fit.
+ * <p>
+ * The counter is registered with a long maximum report latency, so the sensor hub batches the
+ * readings in its FIFO and only wakes the app when the FIFO fills up or the latency runs out;
+ * {@link #refresh()} flushes the FIFO when a fresh total is wanted. Readings are turned into a
+ * daily total by a {@link DailyStepBaseline}, persisted so that it survives process deaths and
+ * reboots, and reconciled every {@link #RECONCILE_INTERVAL_MS} with the Fit total, which also
+ * covers the steps from before the counter was first read. The Fit total is only read once a
+ * flush completed, so that it does not count steps still waiting in the FIFO, which would then
+ * be counted a second time when they arrive.
+ * <p>
+ * The sensor is reached through {@link Counter} and the Fit total through {@link FitReader}, so
+ * fakes can be plugged in for both.
+ */
+final class SensorStepSource implements StepSource {
+
+    private static final String TAG = "WatchFaceTCC";
+
+    /** How long the hardware may hold step readings before delivering them. */
+    static final int MAX_REPORT_LATENCY_US = (int) TimeUnit.MINUTES.toMicros(10);
+
+    /** How often the total is reconciled with the Fit total. */
+    static final long RECONCILE_INTERVAL_MS = TimeUnit.MINUTES.toMillis(30);
+
+    /** How often, at most, the baseline is written while readings come in. */
+    private static final long SAVE_INTERVAL_MS = TimeUnit.MINUTES.toMillis(5);
+
+    private static final String PREFS_NAME = "step_baseline";
+    private static final String PREF_DAY = "day";
+    private static final String PREF_BOOT = "boot";
+    private static final String PREF_COUNTER_BASE = "counterBase";
+    private static final String PREF_OFFSET = "offset";
+    private static final String PREF_LAST_COUNTER = "lastCounter";
+
+    /** A step counter that counts from boot. */
+    interface Counter {
+
+        interface Callback {
+            /**
+             * Called on the main thread for each reading.
+             *
+             * @param counter the steps counted since boot
+             * @param eventWallMs the wall time the steps were counted at, which may be well
+             *                    before the call for batched readings
+             * @param bootWallMs the wall time of the boot the counter counts from
+             */
+            void onCounter(long counter, long eventWallMs, long bootWallMs);
+
+            /** Called on the main thread once a {@link #flush()} delivered the FIFO. */
+            void onFlushCompleted();
+        }
+
+        boolean isAvailable();
+
+        void register(Callback callback, int maxReportLatencyUs);
+
+        void unregister();
+
+        /**
+         * Delivers the readings held in the FIFO, if any, followed by
+         * {@link Callback#onFlushCompleted()}.
+         */
+        void flush();
+    }
+
+    /** Reads the Fit step total, which is handed back through {@link #onFitSteps(int)}. */
+    interface FitReader {
+
+        /**
+         * Starts reading today's Fit step total.
+         *
+         * @return false if the read was refused, e.g. because one is still in flight
+         */
+        boolean readSteps(long nowMs);
+    }
+
+    private final Counter mCounter;
+    private final FitReader mFitReader;
+    private final SharedPreferences mPrefs;
+    private final Listener mListener;
+    private final DailyStepBaseline mBaseline = new DailyStepBaseline();
+
+    private boolean mStarted;
+    private long mLastReconcileMs;
+    private boolean mReconcileOnFlush;
+    private boolean mReconcilePending;
+    private long mLastSaveMs;
+    private boolean mUnsaved;
+
+    private long mReadingCount;
+    private long mReconcileCount;
+    private long mFlushCount;
+
+    private final Counter.Callback mCounterCallback = new Counter.Callback() {
+        @Override
+        public void onCounter(long counter, long eventWallMs, long bootWallMs) {
+            mReadingCount++;
+            long dayKey = DailyStepBaseline.dayKey(eventWallMs, TimeZone.getDefault());
+            if (mBaseline.onCounter(counter, dayKey, bootWallMs)) {
+                stepsChanged();
+            } else {
+                mUnsaved = true;
+            }
+        }
+
+        @Override
+        public void onFlushCompleted() {
+            // Only now are all the steps Fit may know about counted here too; reconciling
+            // earlier would count the ones still in the FIFO twice.
+            long now = System.currentTimeMillis();
+            if (mReconcileOnFlush && mStarted && mFitReader.readSteps(now)) {
+                mLastReconcileMs = now;
+                mReconcilePending = true;
+            }
+            mReconcileOnFlush = false;
+        }
+    };
+
+    SensorStepSource(Counter counter, FitReader fitReader, SharedPreferences prefs,
+            Listener listener) {
+        mCounter = counter;
+        mFitReader = fitReader;
+        mPrefs = prefs;
+        mListener = listener;
+        mBaseline.restore(
+                prefs.getLong(PREF_DAY, Long.MIN_VALUE),
+                prefs.getLong(PREF_BOOT, 0),
+                prefs.getLong(PREF_COUNTER_BASE, 0),
+                prefs.getInt(PREF_OFFSET, 0),
+                prefs.getLong(PREF_LAST_COUNTER, DailyStepBaseline.NO_COUNTER));
+    }
+
+    /** Returns the shared preferences the baseline is persisted in. */
+    static SharedPreferences getPreferences(Context context) {
+        return context.getSharedPreferences(PREFS_NAME, Context.MODE_PRIVATE);
+    }
+
+    boolean isAvailable() {
+        return mCounter.isAvailable();
+    }
+
+    @Override
+    public void start() {
+        if (!mStarted) {
+            mStarted = true;
+            mCounter.register(mCounterCallback, MAX_REPORT_LATENCY_US);
+            mListener.onStepsChanged(mBaseline.getSteps(today()));
+        }
+    }
+
+    @Override
+    public void stop() {
+        if (mStarted) {
+            mStarted = false;
+            mReconcileOnFlush = false;
+            mCounter.unregister();
+            save(System.currentTimeMillis());
+        }
+    }
+
+    @Override
+    public boolean refresh() {
+        if (mStarted) {
+            // The reconciliation waits for the flush, see onFlushCompleted.
+            mReconcileOnFlush = System.currentTimeMillis() - mLastReconcileMs
+                    >= RECONCILE_INTERVAL_MS;
+            mFlushCount++;
+            mCounter.flush();
+        }
+        // Past midnight the total of the new day is reported even before the next reading.
+        mListener.onStepsChanged(mBaseline.getSteps(today()));
+        return true;
+    }
+
+    @Override
+    public void onFitSteps(int stepsToday) {
+        if (!mReconcilePending) {
+            // Not read right after a flush, so it may count steps still in the FIFO.
+            return;
+        }
+        mReconcilePending = false;
+        mReconcileCount++;
+        if (mBaseline.reconcile(stepsToday, today())) {
+            if (Log.isLoggable(TAG, Log.DEBUG)) {
+                Log.d(TAG, "Step counter reconciled up to " + stepsToday);
+            }
+            stepsChanged();
+        }
+    }
+
+    private void stepsChanged() {
+        mUnsaved = true;
+        long now = System.currentTimeMillis();
+        if (now - mLastSaveMs >= SAVE_INTERVAL_MS) {
+            save(now);
+        }
+        mListener.onStepsChanged(mBaseline.getSteps(today()));
+    }
+
+    private void save(long now) {
+        if (!mUnsaved) {
+            return;
+        }
+        mUnsaved = false;
+        mLastSaveMs = now;
+        mPrefs.edit()
+                .putLong(PREF_DAY, mBaseline.getDayKey())
+                .putLong(PREF_BOOT, mBaseline.getBootMs())
+                .putLong(PREF_COUNTER_BASE, mBaseline.getCounterBase())
+                .putInt(PREF_OFFSET, mBaseline.getOffset())
+                .putLong(PREF_LAST_COUNTER, mBaseline.getLastCounter())
+                .apply();
+    }
+
+    private static long today() {
+        return DailyStepBaseline.dayKey(System.currentTimeMillis(), TimeZone.getDefault());
+    }
+
+    @Override
+    public void dump(PrintWriter writer, String prefix) {
+        writer.print(prefix);
+        writer.print("step counter: steps=");
+        writer.print(mBaseline.getSteps(today()));
+        writer.print(" readings=");
+        writer.print(mReadingCount);
+        writer.print(" flushes=");
+        writer.print(mFlushCount);
+        writer.print(" reconciled=");
+        writer.print(mReconcileCount);
+        writer.print(" lastCounter=");
+        writer.println(mBaseline.getLastCounter());
+    }
+
+    /** Reads the Fit step total through a fetch cycle of the {@link FitnessTotalsFetcher}. */
+    static final class FetcherFitReader implements FitReader {
+
+        private final FitnessTotalsFetcher mFetcher;
+
+        FetcherFitReader(FitnessTotalsFetcher fetcher) {
+            mFetcher = fetcher;
+        }
+
+        @Override
+        public boolean readSteps(long nowMs) {
+            return mFetcher.fetch(nowMs, FitnessTotals.bit(FitnessTotals.METRIC_STEPS));
+        }
+    }
+
+    /** The {@link Sensor#TYPE_STEP_COUNTER} sensor of the device. */
+    static final class HardwareCounter implements Counter, SensorEventListener2 {
+
+        private final SensorManager mSensorManager;
+        private final Sensor mSensor;
+        private final Handler mHandler;
+        private Callback mCallback;
+
+        HardwareCounter(Context context, Handler handler) {
+            mSensorManager = (SensorManager) context.getSystemService(Context.SENSOR_SERVICE);
+            mSensor = mSensorManager == null
+                    ? null : mSensorManager.getDefaultSensor(Sensor.TYPE_STEP_COUNTER);
+            mHandler = handler;
+        }
+
+        @Override
+        public boolean isAvailable() {
+            return mSensor != null;
+        }
+
+        @Override
+        public void register(Callback callback, int maxReportLatencyUs) {
+            mCallback = callback;
+            if (!mSensorManager.registerListener(this, mSensor,
+                    SensorManager.SENSOR_DELAY_NORMAL, maxReportLatencyUs, mHandler)) {
+                Log.w(TAG, "Could not register the step counter");
+            } else if (Log.isLoggable(TAG, Log.DEBUG)) {
+                Log.d(TAG, "Step counter registered, FIFO holds "
+                        + mSensor.getFifoMaxEventCount() + " events");
+            }
+        }
+
+        @Override
+        public void unregister() {
+            mSensorManager.unregisterListener(this);
+            mCallback = null;
+        }
+
+        @Override
+        public void flush() {
+            mSensorManager.flush(this);
+        }
+
+        @Override
+        public void onSensorChanged(SensorEvent event) {
+            if (mCallback == null) {
+                return;
+            }
+            // Event timestamps are on the elapsed realtime clock.
+            long nowMs = System.currentTimeMillis();
+            long sinceEventMs = TimeUnit.NANOSECONDS.toMillis(
+                    SystemClock.elapsedRealtimeNanos() - event.timestamp);
+            mCallback.onCounter((long) event.values[0], nowMs - sinceEventMs,
+                    nowMs - SystemClock.elapsedRealtime());
+        }
+
+        @Override
+        public void onFlushCompleted(Sensor sensor) {
+            if (mCallback != null) {
+                mCallback.onFlushCompleted();
+            }
+        }
+
+        @Override
+        public void onAccuracyChanged(Sensor sensor, int accuracy) {
+        }
+    }
+}
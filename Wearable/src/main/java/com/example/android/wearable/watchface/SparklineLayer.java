@@ -0,0 +1,180 @@
+/*
+ * Copyright (C) 2014 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.example.android.wearable.watchface;
+
+
+import android.graphics.Bitmap;
+import android.graphics.Canvas;
+import android.graphics.Paint;
+import android.graphics.PorterDuff;
+
+/**
+ * The intraday activity sparkline: one bar per {@link #MINUTES_PER_BAR} minutes of the day,
+ * rendered into a cached bitmap.
+ * <p>
+ * New steps only redraw the bar they fall into: that column of the bitmap is cleared and drawn
+ * again. The whole bitmap is only rendered again when the size or the day changes, or when a bar
+ * outgrows the scale; the scale is a power of two, so that happens a handful of times a day.
+ */
+final class SparklineLayer {
+
+    static final int MINUTES_PER_BAR = 15;
+    static final int BARS = StepHistory.MINUTES_PER_DAY / MINUTES_PER_BAR;
+
+    /** The smallest scale, so a few steps do not draw full height bars. */
+    private static final int MIN_SCALE = 64;
+
+    private final Paint mBarPaint = new Paint();
+    private final int[] mBars = new int[BARS];
+    private int mScale = MIN_SCALE;
+    private long mDayKey = Long.MIN_VALUE;
+
+    private Bitmap mBitmap;
+    private final Canvas mCanvas = new Canvas();
+    private boolean mValid;
+
+    private int mRebuildCount;
+    private int mBarUpdateCount;
+
+    SparklineLayer(int color) {
+        mBarPaint.setColor(color);
+    }
+
+    /**
+     * Reads the bars of {@code dayKey} from {@code history}, on the thread that writes it, for
+     * {@link #setDay}.
+     */
+    static int[] readBars(StepHistory history, long dayKey) {
+        int[] bars = new int[BARS];
+        if (history != null) {
+            for (int bar = 0; bar < BARS; bar++) {
+                for (int minute = 0; minute < MINUTES_PER_BAR; minute++) {
+                    bars[bar] += history.getMinute(dayKey, bar * MINUTES_PER_BAR + minute);
+                }
+            }
+        }
+        return bars;
+    }
+
+    /** Shows the day {@code dayKey}, with the bars {@link #readBars read} for it. */
+    void setDay(long dayKey, int[] bars) {
+        mDayKey = dayKey;
+        int max = 0;
+        for (int bar = 0; bar < BARS; bar++) {
+            mBars[bar] = bars[bar];
+            max = Math.max(max, bars[bar]);
+        }
+        mScale = scaleFor(max);
+        mValid = false;
+    }
+
+    /** Returns whether any bar of the day has steps, i.e. whether there is anything to draw. */
+    boolean hasSteps() {
+        for (int bar = 0; bar < BARS; bar++) {
+            if (mBars[bar] > 0) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    long getDayKey() {
+        return mDayKey;
+    }
+
+    /** Adds {@code steps} to the bar of {@code minuteOfDay}, redrawing only that bar. */
+    void addSteps(int minuteOfDay, int steps) {
+        if (steps <= 0) {
+            return;
+        }
+        int bar = minuteOfDay / MINUTES_PER_BAR;
+        mBars[bar] += steps;
+        if (mBars[bar] > mScale) {
+            mScale = scaleFor(mBars[bar]);
+            mValid = false;
+        } else if (mValid) {
+            drawBar(bar);
+            mBarUpdateCount++;
+        }
+    }
+
+    /** Draws the sparkline at {@code left, top}, in a {@code width} x {@code height} box. */
+    void draw(Canvas canvas, float left, float top, int width, int height) {
+        if (mBitmap == null || mBitmap.getWidth() != width || mBitmap.getHeight() != height) {
+            if (mBitmap != null) {
+                mBitmap.recycle();
+            }
+            mBitmap = Bitmap.createBitmap(width, height, Bitmap.Config.ARGB_8888);
+            mCanvas.setBitmap(mBitmap);
+            mValid = false;
+        }
+        if (!mValid) {
+            mCanvas.drawColor(0, PorterDuff.Mode.CLEAR);
+            for (int bar = 0; bar < BARS; bar++) {
+                drawBar(bar);
+            }
+            mValid = true;
+            mRebuildCount++;
+        }
+        canvas.drawBitmap(mBitmap, left, top, null);
+    }
+
+    private void drawBar(int bar) {
+        int width = mBitmap.getWidth();
+        int height = mBitmap.getHeight();
+        float left = (float) width * bar / BARS;
+        float right = (float) width * (bar + 1) / BARS;
+        mCanvas.save();
+        mCanvas.clipRect(left, 0, right, height);
+        mCanvas.drawColor(0, PorterDuff.Mode.CLEAR);
+        mCanvas.restore();
+        if (mBars[bar] > 0) {
+            // At least a pixel, so that any activity shows.
+            float barHeight = Math.max(1, (float) height * mBars[bar] / mScale);
+            mCanvas.drawRect(left, height - barHeight, right, height, mBarPaint);
+        }
+    }
+
+    private static int scaleFor(int steps) {
+        int scale = MIN_SCALE;
+        while (scale < steps) {
+            scale *= 2;
+        }
+        return scale;
+    }
+
+    int getRebuildCount() {
+        return mRebuildCount;
+    }
+
+    int getBarUpdateCount() {
+        return mBarUpdateCount;
+    }
+
+    void invalidate() {
+        mValid = false;
+    }
+
+    void recycle() {
+        if (mBitmap != null) {
+            mCanvas.setBitmap(null);
+            mBitmap.recycle();
+            mBitmap = null;
+        }
+        mValid = false;
+    }
+}
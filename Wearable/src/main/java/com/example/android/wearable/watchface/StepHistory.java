@@ -0,0 +1,212 @@
+/*
+ * Copyright (C) 2014 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.example.android.wearable.watchface;
+
+
+import android.util.Log;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.io.RandomAccessFile;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+
+/**
+ * Per-minute step counts of the last {@link #DAYS} local days, kept in a memory-mapped file.
+ * <p>
+ * The file holds one block per day: the day key, the base, the last minute recorded and
+ * {@link #MINUTES_PER_DAY} int counters. The base holds the steps of the day that belong to no
+ * minute: those counted before the history started following the day, and corrections, such as
+ * a reconciled or late total, that grew the total faster than anyone walks. Days go into the
+ * blocks round-robin by day key, so a new day reuses the block of the oldest one. Recording a
+ * minute is a single int write into the mapping, with no serialization; the kernel writes the
+ * dirty pages back on its own, also after the process died.
+ */
+final class StepHistory {
+
+    private static final String TAG = "WatchFaceTCC";
+
+    static final int MINUTES_PER_DAY = 24 * 60;
+    static final int DAYS = 4;
+
+    /**
+     * More steps per minute than anyone walks or runs. Growth beyond this rate since the last
+     * recorded minute is a correction of the total rather than activity.
+     */
+    static final int MAX_STEPS_PER_MINUTE = 250;
+
+    private static final int MAGIC = 0x54434332; // "TCC2"
+    private static final int HEADER_SIZE = 4;
+    private static final int DAY_BASE = 8;
+    private static final int DAY_LAST_MINUTE = DAY_BASE + 4;
+    private static final int DAY_HEADER_SIZE = DAY_LAST_MINUTE + 4;
+    private static final int DAY_SIZE = DAY_HEADER_SIZE + MINUTES_PER_DAY * 4;
+    private static final int FILE_SIZE = HEADER_SIZE + DAYS * DAY_SIZE;
+
+    private static final long NO_DAY = Long.MIN_VALUE;
+
+    private final MappedByteBuffer mBuffer;
+
+    /** The day {@link #mDayTotal} is for, and that day's total as recorded so far. */
+    private long mDayKey = NO_DAY;
+    private int mDayTotal;
+
+    private long mRecordCount;
+    private long mAdjustmentCount;
+
+    private StepHistory(MappedByteBuffer buffer) {
+        mBuffer = buffer;
+    }
+
+    /**
+     * Maps {@code file}, creating it or starting it over if it is not a history file, and
+     * returns {@code null} if it cannot be mapped.
+     */
+    static StepHistory open(File file) {
+        RandomAccessFile raf = null;
+        try {
+            raf = new RandomAccessFile(file, "rw");
+            boolean fresh = raf.length() != FILE_SIZE;
+            raf.setLength(FILE_SIZE);
+            // The mapping stays valid after the channel is closed.
+            MappedByteBuffer buffer = raf.getChannel()
+                    .map(FileChannel.MapMode.READ_WRITE, 0, FILE_SIZE);
+            buffer.order(ByteOrder.nativeOrder());
+            if (fresh || buffer.getInt(0) != MAGIC) {
+                for (int day = 0; day < DAYS; day++) {
+                    clearDay(buffer, day * DAY_SIZE + HEADER_SIZE, NO_DAY, 0, 0);
+                }
+                buffer.putInt(0, MAGIC);
+            }
+            return new StepHistory(buffer);
+        } catch (IOException e) {
+            Log.w(TAG, "Could not map step history " + file.getName(), e);
+            return null;
+        } finally {
+            if (raf != null) {
+                try {
+                    raf.close();
+                } catch (IOException e) {
+                    // Nothing useful to do here.
+                }
+            }
+        }
+    }
+
+    /**
+     * Records the step total of {@code dayKey} as of {@code minuteOfDay}: what it grew by since
+     * the last recorded total of that day is added to that minute. The first total of a day
+     * only starts following it; whatever the day counted before is not spread over any minute.
+     * Neither is growth faster than {@link #MAX_STEPS_PER_MINUTE} over the minutes since the last
+     * record, which goes to the base instead.
+     *
+     * @return the steps added to the minute
+     */
+    int record(int stepsToday, long dayKey, int minuteOfDay) {
+        mRecordCount++;
+        int block = blockOffset(dayKey);
+        if (mBuffer.getLong(block) != dayKey) {
+            clearDay(mBuffer, block, dayKey, stepsToday, minuteOfDay);
+            mDayKey = dayKey;
+            mDayTotal = stepsToday;
+            return 0;
+        }
+        if (dayKey != mDayKey) {
+            mDayKey = dayKey;
+            mDayTotal = sumDay(block);
+        }
+        int delta = stepsToday - mDayTotal;
+        if (delta <= 0) {
+            // Totals only go down when a source revises them; the minutes keep what they had.
+            return 0;
+        }
+        int lastMinute = mBuffer.getInt(block + DAY_LAST_MINUTE);
+        // The minute of the last record may have grown itself, hence the + 1.
+        int minutes = Math.max(1, minuteOfDay - lastMinute + 1);
+        mBuffer.putInt(block + DAY_LAST_MINUTE, minuteOfDay);
+        mDayTotal = stepsToday;
+        if (delta > (long) MAX_STEPS_PER_MINUTE * minutes) {
+            mAdjustmentCount++;
+            mBuffer.putInt(block + DAY_BASE, mBuffer.getInt(block + DAY_BASE) + delta);
+            return 0;
+        }
+        int index = minuteIndex(block, minuteOfDay);
+        mBuffer.putInt(index, mBuffer.getInt(index) + delta);
+        return delta;
+    }
+
+    /** Returns whether the history follows {@code dayKey}. */
+    boolean hasDay(long dayKey) {
+        return mBuffer.getLong(blockOffset(dayKey)) == dayKey;
+    }
+
+    /** Returns the steps of {@code minuteOfDay} on {@code dayKey}, zero for days not held. */
+    int getMinute(long dayKey, int minuteOfDay) {
+        int block = blockOffset(dayKey);
+        if (mBuffer.getLong(block) != dayKey) {
+            return 0;
+        }
+        return mBuffer.getInt(minuteIndex(block, minuteOfDay));
+    }
+
+    private int sumDay(int block) {
+        int total = mBuffer.getInt(block + DAY_BASE);
+        for (int minute = 0; minute < MINUTES_PER_DAY; minute++) {
+            total += mBuffer.getInt(minuteIndex(block, minute));
+        }
+        return total;
+    }
+
+    private static int blockOffset(long dayKey) {
+        int day = (int) (((dayKey % DAYS) + DAYS) % DAYS);
+        return HEADER_SIZE + day * DAY_SIZE;
+    }
+
+    private static int minuteIndex(int block, int minuteOfDay) {
+        return block + DAY_HEADER_SIZE + minuteOfDay * 4;
+    }
+
+    private static void clearDay(MappedByteBuffer buffer, int block, long dayKey, int base,
+            int minuteOfDay) {
+        for (int minute = 0; minute < MINUTES_PER_DAY; minute++) {
+            buffer.putInt(minuteIndex(block, minute), 0);
+        }
+        buffer.putInt(block + DAY_BASE, base);
+        buffer.putInt(block + DAY_LAST_MINUTE, minuteOfDay);
+        // The key goes last, so that a block is never tagged with a day before it is cleared.
+        buffer.putLong(block, dayKey);
+    }
+
+    void dump(PrintWriter writer, String prefix) {
+        writer.print(prefix);
+        writer.print("step history: records=");
+        writer.print(mRecordCount);
+        writer.print(" adjustments=");
+        writer.print(mAdjustmentCount);
+        writer.print(" days=");
+        for (int day = 0; day < DAYS; day++) {
+            long dayKey = mBuffer.getLong(HEADER_SIZE + day * DAY_SIZE);
+            if (dayKey != NO_DAY) {
+                writer.print(dayKey);
+                writer.print(' ');
+            }
+        }
+        writer.println();
+    }
+}
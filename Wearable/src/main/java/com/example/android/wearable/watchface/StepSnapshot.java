@@ -0,0 +1,108 @@
+/*
+ * Copyright (C) 2014 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.example.android.wearable.watchface;
+
+
+import android.content.Context;
+import android.content.SharedPreferences;
+
+import java.io.PrintWriter;
+import java.util.TimeZone;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * The last known daily step total and when it was known, persisted so that a new engine shows
+ * the right total on its first frame instead of zero until the step source reports.
+ * <p>
+ * Both values are packed into a single long preference, the epoch minute in the high half and
+ * the steps in the low half, which keeps the file tiny and fast to read synchronously in
+ * {@code onCreate}. Updates are written with {@link SharedPreferences.Editor#apply()} at most
+ * every {@link #SAVE_INTERVAL_MS}, and on {@link #flush()}.
+ */
+final class StepSnapshot {
+
+    private static final String PREFS_NAME = "step_snapshot";
+    private static final String PREF_SNAPSHOT = "snapshot";
+
+    /** How often, at most, a changing total is written. */
+    static final long SAVE_INTERVAL_MS = TimeUnit.MINUTES.toMillis(1);
+
+    private static final long MINUTE_MS = TimeUnit.MINUTES.toMillis(1);
+    private static final long STEPS_MASK = 0xffffffffL;
+
+    private final SharedPreferences mPrefs;
+
+    private int mSteps;
+    private long mTimeMs;
+    private long mLastSaveMs;
+    private boolean mUnsaved;
+    private long mSaveCount;
+
+    StepSnapshot(Context context) {
+        mPrefs = context.getSharedPreferences(PREFS_NAME, Context.MODE_PRIVATE);
+        long packed = mPrefs.getLong(PREF_SNAPSHOT, 0);
+        mSteps = (int) (packed & STEPS_MASK);
+        mTimeMs = (packed >>> 32) * MINUTE_MS;
+    }
+
+    /**
+     * Returns the total as of {@code nowMs}: the last known one if it was known on the same local
+     * day, else zero.
+     */
+    int getSteps(long nowMs, TimeZone timeZone) {
+        if (DailyStepBaseline.dayKey(mTimeMs, timeZone)
+                != DailyStepBaseline.dayKey(nowMs, timeZone)) {
+            return 0;
+        }
+        return mSteps;
+    }
+
+    /** Records the total known at {@code nowMs}. */
+    void update(int steps, long nowMs) {
+        mSteps = steps;
+        mTimeMs = nowMs;
+        mUnsaved = true;
+        if (nowMs - mLastSaveMs >= SAVE_INTERVAL_MS) {
+            save(nowMs);
+        }
+    }
+
+    /** Writes a total that was held back by the save interval. */
+    void flush() {
+        if (mUnsaved) {
+            save(mTimeMs);
+        }
+    }
+
+    private void save(long nowMs) {
+        mUnsaved = false;
+        mLastSaveMs = nowMs;
+        mSaveCount++;
+        long packed = (mTimeMs / MINUTE_MS) << 32 | (mSteps & STEPS_MASK);
+        mPrefs.edit().putLong(PREF_SNAPSHOT, packed).apply();
+    }
+
+    void dump(PrintWriter writer, String prefix) {
+        writer.print(prefix);
+        writer.print("step snapshot: steps=");
+        writer.print(mSteps);
+        writer.print(" at=");
+        writer.print(mTimeMs);
+        writer.print(" saves=");
+        writer.println(mSaveCount);
+    }
+}
@@ -0,0 +1,51 @@
+/*
+ * Copyright (C) 2014 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.example.android.wearable.watchface;
+
+
+import java.io.PrintWriter;
+
+/**
+ * Where the watch face gets today's step total from. Implementations report the total through
+ * their {@link Listener}, on the main thread.
+ */
+interface StepSource {
+
+    interface Listener {
+        /** Called with today's step total, possibly unchanged since the last call. */
+        void onStepsChanged(int stepsToday);
+    }
+
+    /** Starts delivering updates, while the watch face is visible. */
+    void start();
+
+    /** Stops delivering updates. */
+    void stop();
+
+    /**
+     * Asks for an up to date total, delivered asynchronously.
+     *
+     * @return whether a refresh was issued; {@code false} if one is still in flight or the
+     *         source cannot refresh right now
+     */
+    boolean refresh();
+
+    /** Called with the Google Fit step total whenever a {@link FitnessTotalsFetcher} read it. */
+    void onFitSteps(int stepsToday);
+
+    void dump(PrintWriter writer, String prefix);
+}
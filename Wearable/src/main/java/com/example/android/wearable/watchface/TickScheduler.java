@@ -0,0 +1,183 @@
+/*
+ * Copyright (C) 2014 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.example.android.wearable.watchface;
+
+import android.os.Handler;
+import android.os.Message;
+
+import java.io.PrintWriter;
+import java.util.Arrays;
+
+/**
+ * Holds every time-driven deadline of an engine in a fixed set of slots, one per kind of work,
+ * and wakes the main looper once for the earliest of them.
+ * <p>
+ * Deadlines are wall-clock times. The wakeup is posted as a delay computed against the wall
+ * clock when it is armed; if it fires before its deadline (the clock was adjusted, or the
+ * handler ran early) nothing is due and it is simply re-armed, so tasks that re-schedule
+ * themselves on the next boundary with {@link #nextBoundary} never accumulate drift.
+ * <p>
+ * Wakeups can be switched off, e.g. in ambient mode where the system's time tick is the only
+ * allowed wakeup; due tasks are then run from {@link #runDue(long)} by the caller.
+ */
+final class TickScheduler {
+
+    /** Redraws the seconds in interactive mode. */
+    static final int SLOT_SECOND = 0;
+    /** Refreshes the step count. */
+    static final int SLOT_STEPS = 1;
+    /** Rolls the date and the daily totals over at local midnight. */
+    static final int SLOT_MIDNIGHT = 2;
+    /** Drops the interactive face to minute cadence after a while without interaction. */
+    static final int SLOT_IDLE = 3;
+    /** Renders the next ambient frame shortly before the minute changes in interactive mode. */
+    static final int SLOT_AMBIENT = 4;
+    private static final int SLOT_COUNT = 5;
+
+    private static final String[] SLOT_NAMES = {"second", "steps", "midnight", "idle", "ambient"};
+
+    private static final long NONE = Long.MAX_VALUE;
+    private static final int MSG_WAKEUP = 0;
+
+    interface Task {
+        /**
+         * Runs the task whose deadline was {@code deadlineMs}. The slot is already cleared, so
+         * the task can schedule itself again.
+         */
+        void run(long deadlineMs, long nowMs);
+    }
+
+    private final Handler mHandler = new Handler() {
+        @Override
+        public void handleMessage(Message message) {
+            mWakeups++;
+            mWakeupAtMs = NONE;
+            runDue(System.currentTimeMillis());
+        }
+    };
+
+    private final Task[] mTasks = new Task[SLOT_COUNT];
+    private final long[] mDeadlines = new long[SLOT_COUNT];
+    private final long[] mRunCounts = new long[SLOT_COUNT];
+
+    private boolean mWakeupsEnabled;
+    private boolean mRunning;
+    private long mWakeupAtMs = NONE;
+    private long mWakeups;
+
+    TickScheduler() {
+        Arrays.fill(mDeadlines, NONE);
+    }
+
+    void setTask(int slot, Task task) {
+        mTasks[slot] = task;
+    }
+
+    /** Sets the deadline of {@code slot}, replacing any previous one. */
+    void schedule(int slot, long deadlineMs) {
+        mDeadlines[slot] = deadlineMs;
+        updateWakeup();
+    }
+
+    void cancel(int slot) {
+        mDeadlines[slot] = NONE;
+        updateWakeup();
+    }
+
+    void cancelAll() {
+        Arrays.fill(mDeadlines, NONE);
+        updateWakeup();
+    }
+
+    boolean isScheduled(int slot) {
+        return mDeadlines[slot] != NONE;
+    }
+
+    /** Enables or disables posting wakeups. Deadlines are kept either way. */
+    void setWakeupsEnabled(boolean enabled) {
+        mWakeupsEnabled = enabled;
+        updateWakeup();
+    }
+
+    /** Runs every task whose deadline is at or before {@code nowMs}, in slot order. */
+    void runDue(long nowMs) {
+        runDue(nowMs, nowMs);
+    }
+
+    /**
+     * Runs every task whose deadline is at or before {@code dueMs}, in slot order, passing them
+     * the actual time {@code nowMs}. A {@code dueMs} past {@code nowMs} runs tasks a little
+     * early, e.g. for a time tick that arrived ahead of the boundary it stands for.
+     */
+    void runDue(long dueMs, long nowMs) {
+        mRunning = true;
+        try {
+            for (int slot = 0; slot < SLOT_COUNT; slot++) {
+                long deadlineMs = mDeadlines[slot];
+                if (deadlineMs <= dueMs) {
+                    mDeadlines[slot] = NONE;
+                    mRunCounts[slot]++;
+                    mTasks[slot].run(deadlineMs, nowMs);
+                }
+            }
+        } finally {
+            mRunning = false;
+        }
+        updateWakeup();
+    }
+
+    /** Returns the first multiple of {@code intervalMs} after {@code nowMs}. */
+    static long nextBoundary(long nowMs, long intervalMs) {
+        return nowMs - nowMs % intervalMs + intervalMs;
+    }
+
+    void dump(PrintWriter writer, String prefix) {
+        writer.print(prefix);
+        writer.print("scheduler wakeups: ");
+        writer.print(mWakeups);
+        writer.print(", runs:");
+        for (int slot = 0; slot < SLOT_COUNT; slot++) {
+            writer.print(' ');
+            writer.print(SLOT_NAMES[slot]);
+            writer.print('=');
+            writer.print(mRunCounts[slot]);
+        }
+        writer.println();
+    }
+
+    private void updateWakeup() {
+        if (mRunning) {
+            // runDue() re-arms once all due tasks have run.
+            return;
+        }
+        long earliestMs = NONE;
+        if (mWakeupsEnabled) {
+            for (int slot = 0; slot < SLOT_COUNT; slot++) {
+                earliestMs = Math.min(earliestMs, mDeadlines[slot]);
+            }
+        }
+        if (earliestMs == mWakeupAtMs) {
+            return;
+        }
+        mHandler.removeMessages(MSG_WAKEUP);
+        mWakeupAtMs = earliestMs;
+        if (earliestMs != NONE) {
+            long delayMs = Math.max(0, earliestMs - System.currentTimeMillis());
+            mHandler.sendEmptyMessageDelayed(MSG_WAKEUP, delayMs);
+        }
+    }
+}
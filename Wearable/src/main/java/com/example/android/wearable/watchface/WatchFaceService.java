@@ -18,15 +18,11 @@ package com.example.android.wearable.watchface;
 
 import com.google.android.gms.common.ConnectionResult;
 import com.google.android.gms.common.api.GoogleApiClient;
-import com.google.android.gms.common.api.PendingResult;
 import com.google.android.gms.common.api.ResultCallback;
 import com.google.android.gms.common.api.Status;
 import com.google.android.gms.fitness.Fitness;
 import com.google.android.gms.fitness.FitnessStatusCodes;
-import com.google.android.gms.fitness.data.DataPoint;
 import com.google.android.gms.fitness.data.DataType;
-import com.google.android.gms.fitness.data.Field;
-import com.google.android.gms.fitness.result.DailyTotalResult;
 import com.google.android.gms.wearable.DataApi;
 import com.google.android.gms.wearable.DataEvent;
 import com.google.android.gms.wearable.DataEventBuffer;
@@ -48,30 +44,29 @@ import android.graphics.Color;
 import android.graphics.Paint;
 import android.graphics.Rect;
 import android.graphics.Typeface;
-import android.graphics.drawable.BitmapDrawable;
-import android.graphics.drawable.Drawable;
 import android.os.BatteryManager;
 import android.os.Bundle;
 import android.os.Handler;
-import android.os.Message;
 import android.support.wearable.watchface.CanvasWatchFaceService;
 import android.support.wearable.watchface.WatchFaceStyle;
-import android.text.format.DateFormat;
 import android.util.Log;
+import android.view.Choreographer;
 import android.view.SurfaceHolder;
 import android.view.WindowInsets;
 
-import java.util.Calendar;
+import java.io.File;
+import java.io.FileDescriptor;
+import java.io.PrintWriter;
+import java.util.ArrayList;
 import java.util.Date;
 import java.util.List;
-import java.util.TimeZone;
 import java.util.concurrent.TimeUnit;
 
 /**
  * The step count watch face shows user's daily step total via Google Fit (matches Google Fit app).
- * Steps are polled initially when the Google API Client successfully connects and once a minute
- * after that via the onTimeTick callback. If you want more frequent updates, you will want to add
- * your own  Handler.
+ * Steps are polled initially when the Google API Client successfully connects, once a minute
+ * after that and at midnight. All time-driven work runs from the engine's {@link TickScheduler},
+ * which is driven by the onTimeTick callback in ambient mode.
  *
  * Authentication is not a requirement to request steps from Google Fit on Wear.
  *
@@ -80,6 +75,13 @@ import java.util.concurrent.TimeUnit;
  * On devices with low-bit ambient mode, the text is drawn without anti-aliasing. On devices which
  * require burn-in protection, the hours are drawn in normal rather than bold.
  *
+ * Frames are drawn on the main thread by default. With {@link WatchFaceUtil#KEY_RENDER_THREAD}
+ * interactive frames are drawn on a {@link RenderThread} instead, so that Fit results, data
+ * events and broadcasts on the main looper cannot hold up the second tick. Ambient frames are
+ * always drawn in onDraw, on the main thread, while the system keeps the CPU awake for the time
+ * tick; the render thread could only get to them after that. Either way frames only read an
+ * immutable {@link FaceState} the main thread publishes, plus render state that the main thread
+ * only changes under the engine's render lock.
  */
 public class WatchFaceService extends CanvasWatchFaceService {
 
@@ -94,21 +96,73 @@ public class WatchFaceService extends CanvasWatchFaceService {
      */
     private static final long ACTIVE_INTERVAL_MS = TimeUnit.SECONDS.toMillis(1);
 
+    private static final long MINUTE_MS = TimeUnit.MINUTES.toMillis(1);
+
+    /**
+     * The system's time tick can arrive slightly before the minute boundary it stands for, so
+     * deadlines this close are treated as due when it does.
+     */
+    private static final long TIME_TICK_SLACK_MS = TimeUnit.SECONDS.toMillis(1);
+
+    /**
+     * Whether the background is kept as RGB_565 instead of ARGB_8888. The background is an
+     * opaque photo, so this halves its memory for no visible loss.
+     */
+    private static final boolean COMPACT_BACKGROUND = true;
+
+    /**
+     * Whether ticks that only change the seconds lock and redraw just the seconds box of the
+     * surface (and of the seconds arc), instead of going through {@link Engine#invalidate()} and a
+     * full-frame draw.
+     */
+    private static final boolean PARTIAL_SECONDS_UPDATES = true;
+
+    private static final char[] DIGITS = "0123456789".toCharArray();
+
+    /**
+     * How long before a minute boundary the interactive face renders the ambient frame for the
+     * next minute, so that going ambient around the boundary still finds it ready.
+     */
+    private static final long AMBIENT_PREPARE_LEAD_MS = TimeUnit.SECONDS.toMillis(5);
+
+    /** The memory-mapped per-minute step history, in the app files dir. */
+    private static final String STEP_HISTORY_FILE = "step_history";
+
+    /** How early a Choreographer frame may come and still count for the arc's frame interval. */
+    private static final long ARC_FRAME_SLOP_NS = TimeUnit.MILLISECONDS.toNanos(4);
+
+    /** Engines that are currently alive, so that {@link #dump} can report on them. */
+    private final List<Engine> mEngines = new ArrayList<>();
+
     @Override
     public Engine onCreateEngine() {
         return new Engine();
     }
 
+    @Override
+    protected void dump(FileDescriptor fd, PrintWriter writer, String[] args) {
+        super.dump(fd, writer, args);
+        writer.println("WatchFaceService render stats:");
+        for (int i = 0; i < mEngines.size(); i++) {
+            writer.print("  Engine #");
+            writer.println(i);
+            mEngines.get(i).dump(writer, "    ");
+        }
+    }
+
     private class Engine extends CanvasWatchFaceService.Engine implements
             DataApi.DataListener,
             GoogleApiClient.ConnectionCallbacks,
             GoogleApiClient.OnConnectionFailedListener,
-            ResultCallback<DailyTotalResult> {
+            FaceSettings.Listener,
+            RenderThread.Renderer,
+            StepSource.Listener,
+            FitnessTotalsFetcher.Listener,
+            BackgroundLoader.Listener {
 
         private static final int BACKGROUND_COLOR = Color.BLACK;
         private static final int TEXT_HOURS_MINS_COLOR = Color.WHITE;
         private static final int TEXT_SECONDS_COLOR = Color.GRAY;
-        private static final int TEXT_AM_PM_COLOR = Color.GRAY;
         private static final int TEXT_COLON_COLOR = Color.GRAY;
         private static final int TEXT_STEP_COUNT_COLOR = Color.WHITE;
         private static final int TEXT_DATE_COLOR = Color.WHITE;
@@ -117,42 +171,200 @@ public class WatchFaceService extends CanvasWatchFaceService {
         private static final int TEXT_BATTERY_MEDIUM = Color.YELLOW;
         private static final int TEXT_BATTERY_LOW = Color.RED;
 
-        private static final String COLON_STRING = ":";
+        /** Every time-driven deadline of this engine: seconds, steps refresh and midnight. */
+        private final TickScheduler mScheduler = new TickScheduler();
+
+        private final TickScheduler.Task mSecondTask = new TickScheduler.Task() {
+            @Override
+            public void run(long deadlineMs, long nowMs) {
+                if (Log.isLoggable(TAG, Log.VERBOSE)) {
+                    Log.v(TAG, "updating time");
+                }
+                mFrameStats.recordTick(deadlineMs, nowMs, ACTIVE_INTERVAL_MS);
+                if (!PARTIAL_SECONDS_UPDATES) {
+                    requestFullFrame();
+                } else if (mRenderThread != null) {
+                    mRenderThread.requestFrame(RenderThread.FRAME_SECONDS);
+                } else if (!drawPartialFrame(true /* seconds */)) {
+                    invalidate();
+                }
+                if (shouldTimerBeRunning()) {
+                    mScheduler.schedule(TickScheduler.SLOT_SECOND,
+                            TickScheduler.nextBoundary(nowMs, ACTIVE_INTERVAL_MS));
+                }
+            }
+        };
+
+        private final TickScheduler.Task mStepsTask = new TickScheduler.Task() {
+            @Override
+            public void run(long deadlineMs, long nowMs) {
+                refreshSteps(nowMs);
+                mScheduler.schedule(TickScheduler.SLOT_STEPS, nextStepsRefreshMs(nowMs));
+            }
+        };
 
-        private static final int MSG_UPDATE_TIME = 0;
+        private final TickScheduler.Task mMidnightTask = new TickScheduler.Task() {
+            @Override
+            public void run(long deadlineMs, long nowMs) {
+                if (Log.isLoggable(TAG, Log.DEBUG)) {
+                    Log.d(TAG, "Midnight rollover");
+                }
+                // The daily step total starts over; the date follows from the day key.
+                onStepsChanged(mStepSnapshot.getSteps(nowMs, mSettings.getTimeZone()));
+                refreshSteps(nowMs);
+                requestFullFrame();
+                mScheduler.schedule(TickScheduler.SLOT_MIDNIGHT,
+                        mScheduleDecomposer.nextLocalMidnight(nowMs));
+            }
+        };
 
-        /* Handler to update the time periodically in interactive mode. */
-        private final Handler mUpdateTimeHandler = new Handler() {
+        private final TickScheduler.Task mIdleTask = new TickScheduler.Task() {
             @Override
-            public void handleMessage(Message message) {
-                switch (message.what) {
-                    case MSG_UPDATE_TIME:
-                        if (Log.isLoggable(TAG, Log.VERBOSE)) {
-                            Log.v(TAG, "updating time");
-                        }
-                        invalidate();
-                        if (shouldUpdateTimeHandlerBeRunning()) {
-                            long timeMs = System.currentTimeMillis();
-                            long delayMs =
-                                    ACTIVE_INTERVAL_MS - (timeMs % ACTIVE_INTERVAL_MS);
-                            mUpdateTimeHandler.sendEmptyMessageDelayed(MSG_UPDATE_TIME, delayMs);
-                        }
-                        break;
+            public void run(long deadlineMs, long nowMs) {
+                if (Log.isLoggable(TAG, Log.DEBUG)) {
+                    Log.d(TAG, "Idle, dropping to minute updates");
                 }
+                mState = mState.buildUpon().setIdle(true).build();
+                mIdleCount++;
+                // Redraw once without the seconds; onTimeTick takes it from there.
+                mDirty.mark(DirtyTracker.MINUTE_LAYER);
+                requestFullFrame();
+                updateTimer();
+            }
+        };
+
+        private final TickScheduler.Task mAmbientTask = new TickScheduler.Task() {
+            @Override
+            public void run(long deadlineMs, long nowMs) {
+                runOnRenderer(mPrepareAmbientFrames);
+                mScheduler.schedule(TickScheduler.SLOT_AMBIENT, nextAmbientPrepareMs(nowMs));
             }
         };
 
         /**
-         * Handles time zone and locale changes.
+         * Samples how much of the screen the current frame lights up, after it went on screen,
+         * and reports it to the companion app. Runs on the thread that draws the frames.
          */
-        private final BroadcastReceiver mCalendarReceiver = new BroadcastReceiver() {
+        private final Runnable mSampleLitPixels = new Runnable() {
             @Override
-            public void onReceive(Context context, Intent intent) {
-                mCalendar.setTimeZone(TimeZone.getDefault());
-                invalidate();
+            public void run() {
+                sampleLitPixels();
+            }
+        };
+
+        /**
+         * Renders the upcoming ambient frame after an ambient frame went on screen, or ahead of
+         * the next minute. Runs on the thread that draws the frames.
+         */
+        private final Runnable mPrepareAmbientFrames = new Runnable() {
+            @Override
+            public void run() {
+                prepareAmbientFrames(System.currentTimeMillis());
+            }
+        };
+
+        /*
+         * Idle downgrade: with a timeout set, the interactive face stops its second tick and
+         * hides the seconds when nobody interacted with it for that long.
+         */
+        private long mIdleTimeoutMs;
+        private long mLastInteractionMs;
+        private int mIdleCount;
+
+        /**
+         * What the frames show, published by the main thread as a new snapshot on every change.
+         * A frame reads it once into {@link #mFrameState} and draws from that.
+         */
+        private volatile FaceState mState = FaceState.INITIAL;
+        private FaceState mFrameState = FaceState.INITIAL;
+
+        /**
+         * Guards the render state: layers, paints, layout, the text canvas and the frame's time
+         * fields. Frames hold it while drawing; the main thread takes it only for the rare
+         * changes to that state (insets, properties, surface size, settings and configuration),
+         * never for data updates, which go through {@link #mState} and {@link #mDirty}. Work on
+         * the render state that takes longer than such a change, like rendering or sampling a
+         * bitmap, goes through {@link #runOnRenderer} instead, so it does not hold up frames.
+         */
+        private final Object mRenderLock = new Object();
+
+        /**
+         * Draws the frames while {@link WatchFaceUtil#KEY_RENDER_THREAD} is on, else null. Set on
+         * the main thread, also read by frames.
+         */
+        private volatile RenderThread mRenderThread;
+
+        private Handler mMainHandler;
+
+        /** Follows up on a quality change made by a frame, on the main thread. */
+        private final Runnable mQualityChanged = new Runnable() {
+            @Override
+            public void run() {
+                updateArcAnimation();
+                updateEnergyStrategy();
+            }
+        };
+
+        /** Battery drain per display state and rendering strategy. */
+        private EnergyProfiler mEnergyProfiler;
+
+        private final FrameStats mFrameStats = new FrameStats();
+
+        /**
+         * Layers made stale by data and settings changes. They are applied by the next frame,
+         * which is at most a second tick away in interactive mode and the next time tick in
+         * ambient mode, so events never trigger a redraw of their own.
+         */
+        private final DirtyTracker mDirty = new DirtyTracker();
+
+        /** OLED lit pixel and luminance figures per mode, guarded by {@link #mRenderLock}. */
+        private final LitPixelMeter mLitMeter = new LitPixelMeter();
+        private boolean mAmbientOverLitLimit;
+
+        /** Lowers the interactive rendering quality while frames are over budget. */
+        private final FrameBudgetGovernor mGovernor = new FrameBudgetGovernor();
+
+        /*
+         * The optional smooth seconds arc. While it can animate, Choreographer frames repaint
+         * the part of it that grew, at a frame rate picked from their cost and the battery
+         * level; otherwise it only moves with the 1 Hz seconds tick. The cost and frame rate are
+         * updated by whichever thread draws the arc frames.
+         */
+        private SecondsArc mSecondsArc;
+        private Choreographer mChoreographer;
+        private boolean mArcFramePosted;
+        private long mLastArcFrameNs;
+        private volatile long mArcFrameCostNs;
+        private volatile int mArcFps = 60;
+        /** Milliseconds into the minute the arc on the surface was drawn for. */
+        private long mArcDrawnMs;
+        private final Rect mArcRect = new Rect();
+
+        private final Choreographer.FrameCallback mArcFrameCallback =
+                new Choreographer.FrameCallback() {
+            @Override
+            public void doFrame(long frameTimeNanos) {
+                mArcFramePosted = false;
+                if (!shouldAnimateArc()) {
+                    return;
+                }
+                long intervalNs = TimeUnit.SECONDS.toNanos(1) / mArcFps;
+                if (frameTimeNanos - mLastArcFrameNs >= intervalNs - ARC_FRAME_SLOP_NS) {
+                    mLastArcFrameNs = frameTimeNanos;
+                    if (mRenderThread != null) {
+                        mRenderThread.requestFrame(RenderThread.FRAME_ARC);
+                    } else if (!drawPartialFrame(false /* seconds */)) {
+                        invalidate();
+                    }
+                }
+                mChoreographer.postFrameCallback(this);
+                mArcFramePosted = true;
             }
         };
 
+        /** 12/24-hour, time zone, date format and AM/PM strings, kept current by observers. */
+        private FaceSettings mSettings;
+
         /**
          * Handles the battery changes
          */
@@ -169,7 +381,14 @@ public class WatchFaceService extends CanvasWatchFaceService {
                 int level = intent.getIntExtra(BatteryManager.EXTRA_LEVEL, -1);
                 int scale = intent.getIntExtra(BatteryManager.EXTRA_SCALE, -1);
 
-                mBatteryPercentage = (level / (float)scale) * 100;
+                float batteryPercentage = (level / (float)scale) * 100;
+                mEnergyProfiler.recordBattery(batteryPercentage, isCharging,
+                        System.currentTimeMillis());
+                // The broadcast also fires for voltage and temperature changes.
+                if (batteryPercentage != mState.batteryPercentage) {
+                    mState = mState.buildUpon().setBatteryPercentage(batteryPercentage).build();
+                    mDirty.mark(DirtyTracker.MINUTE_LAYER);
+                }
             }
         };
 
@@ -181,32 +400,76 @@ public class WatchFaceService extends CanvasWatchFaceService {
 
 
 
-        private Bitmap mBackgroundBitmap;
+        private BackgroundLoader mBackgroundLoader;
+        /** The background at the surface size, or null while it is loaded; a flat fill then. */
         private Bitmap mBackgroundScaledBitmap;
 
         private Paint mHourPaint;
         private Paint mMinutePaint;
         private Paint mSecondPaint;
-        private Paint mAmPmPaint;
         private Paint mColonPaint;
         private Paint mStepCountPaint;
         private Paint mDatePaint;
         private Paint mBattery;
         private Paint mBatteryDevice;
 
-        private float mColonWidth;
+        /**
+         * Draws the time line with the paints above, either as text or blitted from their glyph
+         * atlases. The atlases can be switched off through {@link WatchFaceUtil#KEY_GLYPH_ATLAS}
+         * to compare both paths.
+         */
+        private final CanvasTextCanvas mTextCanvas = new CanvasTextCanvas();
+        private final TimeLine mTimeLine = new TimeLine();
 
-        private Calendar mCalendar;
+        /*
+         * Offscreen layers the interactive frame is composited from. The day layer holds the
+         * background and the date, the minute layer a copy of it plus the time, steps and battery
+         * lines. Only the seconds are drawn every tick.
+         */
+        private final CachedLayer mDayLayer = new CachedLayer(Bitmap.Config.ARGB_8888);
+        private final CachedLayer mMinuteLayer = new CachedLayer(Bitmap.Config.ARGB_8888);
+        private float mSecondsX;
+        /**
+         * The part of the surface the seconds digits can touch, computed whenever the minute
+         * layer is rendered. Empty while there is no valid minute layer to redraw it from.
+         */
+        private final Rect mSecondsRect = new Rect();
+        private final Rect mDirtyRect = new Rect();
+        private final Paint.FontMetrics mSecondFontMetrics = new Paint.FontMetrics();
+
+        /** Draws and caches the ambient frames, with its own paints and layout. */
+        private AmbientRenderer mAmbientRenderer;
+        /** The time of the ambient frames rendered ahead of time. */
+        private final TimeFields mAmbientTime = new TimeFields();
+        /** Ambient frames that were ready when drawn, and ones that had to be rendered first. */
+        private int mAmbientFramesReady;
+        private int mAmbientFramesLate;
+
+        private final TimeFields mTime = new TimeFields();
+        /** Fills {@link #mTime} every frame without going through a {@link java.util.Calendar}. */
+        private TimeDecomposer mTimeDecomposer;
+        /** The scheduler's own decomposer for midnight deadlines, used on the main thread only. */
+        private TimeDecomposer mScheduleDecomposer;
         private Date mDate;
-        private java.text.DateFormat mDateFormat;
 
-        private float mXOffset;
-        private float mXStepsOffset;
+        /** Line positions, recomputed only when the insets, surface or peek card change. */
+        private final FaceLayout mLayout = new FaceLayout();
         private float mYOffset;
         private float mLineHeight;
 
-        private String mAmString;
-        private String mPmString;
+        /*
+         * Reusable buffers for everything onDraw renders, so that a steady-state frame does not
+         * allocate. The templates hold the localized text around the numbers.
+         */
+        private char[] mLineChars;
+        private char[] mDateChars = new char[0];
+        private int mDateLength;
+        private long mDateKey = -1;
+        private CharFormatter.Template mStepsTemplate;
+        private CharFormatter.Template mBatteryTemplate;
+        private CharFormatter.Template mBatteryDeviceTemplate;
+        private CharFormatter.Template mDistanceTemplate;
+        private CharFormatter.Template mCaloriesTemplate;
 
 
         /**
@@ -220,12 +483,29 @@ public class WatchFaceService extends CanvasWatchFaceService {
          */
         private GoogleApiClient mGoogleApiClient;
 
-        private boolean mStepsRequested;
+        /** Reads the Google Fit totals, in one batched cycle for all metrics. */
+        private FitnessTotalsFetcher mFitnessFetcher;
+
+        /** Where the step total comes from, see {@link WatchFaceUtil#KEY_STEP_COUNTER_SENSOR}. */
+        private StepSource mStepSource;
+
+        /** The last known step total, shown until the step source reports. */
+        private StepSnapshot mStepSnapshot;
+
+        /** Steps per minute of the last days, or null if the file could not be mapped. */
+        private StepHistory mStepHistory;
+        private final TimeFields mStepHistoryTime = new TimeFields();
+
+        /**
+         * The activity sparkline of today, drawn from {@link #mStepHistory}, and the day the main
+         * thread last handed to it.
+         */
+        private final SparklineLayer mSparkline = new SparklineLayer(TEXT_STEP_COUNT_COLOR);
+        private long mSparklineDayKey;
 
-        private int mStepsTotal = 0;
-        private float mBatteryPercentage = 0;
-        private float mBatteryDevicePercentage = 0;
-        private boolean mBatteryDeviceReceived = false;
+        /** How often {@link #mStepSource} is refreshed. Main thread only. */
+        private final StepPollingPolicy mStepPolicy = new StepPollingPolicy();
+        private final TimeFields mStepPolicyTime = new TimeFields();
 
         @Override
         public void onCreate(SurfaceHolder holder) {
@@ -235,7 +515,8 @@ public class WatchFaceService extends CanvasWatchFaceService {
 
             super.onCreate(holder);
 
-            mStepsRequested = false;
+            mEngines.add(this);
+
             mGoogleApiClient = new GoogleApiClient.Builder(WatchFaceService.this)
                     .addConnectionCallbacks(this)
                     .addOnConnectionFailedListener(this)
@@ -244,49 +525,125 @@ public class WatchFaceService extends CanvasWatchFaceService {
                     .addApi(Fitness.RECORDING_API)
                     .useDefaultAccount()
                     .build();
+            mFitnessFetcher = new FitnessTotalsFetcher(mGoogleApiClient, this);
+            mStepSource = new FitStepSource(mFitnessFetcher, this);
 
             setWatchFaceStyle(new WatchFaceStyle.Builder(WatchFaceService.this)
                     .setCardPeekMode(WatchFaceStyle.PEEK_MODE_VARIABLE)
                     .setBackgroundVisibility(WatchFaceStyle.BACKGROUND_VISIBILITY_INTERRUPTIVE)
                     .setShowSystemUiTime(false)
+                    .setAcceptsTapEvents(true)
                     .build());
 
             Resources resources = getResources();
 
-            Drawable backgroundDrawable = resources.getDrawable(R.drawable.bg, null);
-            mBackgroundBitmap = ((BitmapDrawable) backgroundDrawable).getBitmap();
+            // The background is loaded at the surface size, see onSurfaceChanged.
+            mBackgroundLoader = new BackgroundLoader(WatchFaceService.this, R.drawable.bg,
+                    COMPACT_BACKGROUND);
 
             mYOffset = resources.getDimension(R.dimen.fit_y_offset);
             mLineHeight = resources.getDimension(R.dimen.fit_line_height);
-            mAmString = resources.getString(R.string.fit_am);
-            mPmString = resources.getString(R.string.fit_pm);
+
+            loadTemplates(resources);
 
             mHourPaint = createTextPaint(TEXT_HOURS_MINS_COLOR, BOLD_TYPEFACE);
             mMinutePaint = createTextPaint(TEXT_HOURS_MINS_COLOR);
             mSecondPaint = createTextPaint(TEXT_SECONDS_COLOR);
-            mAmPmPaint = createTextPaint(TEXT_AM_PM_COLOR);
             mColonPaint = createTextPaint(TEXT_COLON_COLOR);
             mStepCountPaint = createTextPaint(TEXT_STEP_COUNT_COLOR);
             mDatePaint = createTextPaint(TEXT_DATE_COLOR);
             mBattery = createTextPaint(TEXT_BATTERY_HIGH);
             mBatteryDevice = createTextPaint(TEXT_BATTERY_HIGH);
 
-            mCalendar = Calendar.getInstance();
-            mDate = new Date();
-            initFormats();
-        }
+            mTextCanvas.setPaint(TextCanvas.STYLE_HOUR, mHourPaint);
+            mTextCanvas.setPaint(TextCanvas.STYLE_MINUTE, mMinutePaint);
+            mTextCanvas.setPaint(TextCanvas.STYLE_SECOND, mSecondPaint);
+            mTextCanvas.setPaint(TextCanvas.STYLE_COLON, mColonPaint);
+            mTextCanvas.setUseAtlas(true);
+
+            mAmbientRenderer = new AmbientRenderer(NORMAL_TYPEFACE, BOLD_TYPEFACE);
+
+            mSecondsArc = new SecondsArc(TEXT_SECONDS_COLOR,
+                    resources.getDimension(R.dimen.fit_seconds_arc_width));
+            mChoreographer = Choreographer.getInstance();
+
+            mMainHandler = new Handler();
+            mSettings = new FaceSettings(WatchFaceService.this, mMainHandler, mRenderLock, this);
+            mTimeDecomposer = new TimeDecomposer(mSettings.getTimeZone());
+            mScheduleDecomposer = new TimeDecomposer(mSettings.getTimeZone());
+
+            // Read synchronously, so that the first frame already shows today's steps; the step
+            // source refreshes them in the background once connected.
+            mStepSnapshot = new StepSnapshot(WatchFaceService.this);
+            mStepHistory = StepHistory.open(new File(getFilesDir(), STEP_HISTORY_FILE));
+            mScheduleDecomposer.decompose(System.currentTimeMillis(), mStepHistoryTime);
+            mSparklineDayKey = mStepHistoryTime.dayKey;
+            mSparkline.setDay(mSparklineDayKey,
+                    SparklineLayer.readBars(mStepHistory, mSparklineDayKey));
+            mState = mState.buildUpon()
+                    .setStepsTotal(mStepSnapshot.getSteps(System.currentTimeMillis(),
+                            mSettings.getTimeZone()))
+                    .build();
 
-        private void initFormats() {
-            mDateFormat = DateFormat.getDateFormat(WatchFaceService.this);
-            mDateFormat.setCalendar(mCalendar);
+            mScheduler.setTask(TickScheduler.SLOT_SECOND, mSecondTask);
+            mScheduler.setTask(TickScheduler.SLOT_STEPS, mStepsTask);
+            mScheduler.setTask(TickScheduler.SLOT_MIDNIGHT, mMidnightTask);
+            mScheduler.setTask(TickScheduler.SLOT_IDLE, mIdleTask);
+            mScheduler.setTask(TickScheduler.SLOT_AMBIENT, mAmbientTask);
+            mEnergyProfiler = new EnergyProfiler(getEnergyStrategy(), System.currentTimeMillis());
+            mDate = new Date();
         }
 
         @Override
         public void onDestroy() {
-            mUpdateTimeHandler.removeMessages(MSG_UPDATE_TIME);
+            mScheduler.setWakeupsEnabled(false);
+            mScheduler.cancelAll();
+            mChoreographer.removeFrameCallback(mArcFrameCallback);
+            mMainHandler.removeCallbacks(mQualityChanged);
+            mMainHandler.removeCallbacks(mPrepareAmbientFrames);
+            mMainHandler.removeCallbacks(mSampleLitPixels);
+            setRenderThreadEnabled(false);
+            mBackgroundLoader.cancel();
+            mEngines.remove(this);
+            mStepSource.stop();
+            mStepSnapshot.flush();
+            synchronized (mRenderLock) {
+                mTextCanvas.recycleAtlases();
+                mDayLayer.recycle();
+                mMinuteLayer.recycle();
+                mAmbientRenderer.recycle();
+                mSparkline.recycle();
+                if (mBackgroundScaledBitmap != null) {
+                    mBackgroundScaledBitmap.recycle();
+                    mBackgroundScaledBitmap = null;
+                }
+            }
             super.onDestroy();
         }
 
+        /**
+         * Builds the line templates from the resource strings and the grouping separator of the
+         * current locale, and sizes {@link #mLineChars} for them. Called with the render lock
+         * held once frames may be drawn.
+         */
+        private void loadTemplates(Resources resources) {
+            mStepsTemplate = new CharFormatter.Template(
+                    resources.getString(R.string.fit_steps), "");
+            mBatteryTemplate = new CharFormatter.Template(
+                    resources.getString(R.string.fit_battery), "% (Relógio)");
+            mBatteryDeviceTemplate = new CharFormatter.Template(
+                    resources.getString(R.string.fit_battery), "% (Celular)");
+            mDistanceTemplate = new CharFormatter.Template(
+                    resources.getString(R.string.fit_distance), "");
+            mCaloriesTemplate = new CharFormatter.Template(
+                    resources.getString(R.string.fit_calories), "");
+            mLineChars = new char[Math.max(
+                    Math.max(mStepsTemplate.maxLength(), mBatteryTemplate.maxLength()),
+                    Math.max(mBatteryDeviceTemplate.maxLength(),
+                            Math.max(mDistanceTemplate.maxLength(),
+                                    mCaloriesTemplate.maxLength())))];
+        }
+
         private Paint createTextPaint(int color) {
             return createTextPaint(color, NORMAL_TYPEFACE);
         }
@@ -308,15 +665,23 @@ public class WatchFaceService extends CanvasWatchFaceService {
 
             if (visible) {
                 mGoogleApiClient.connect();
+                mStepSource.start();
 
                 registerReceiver();
 
                 // Update time zone and date formats, in case they changed while we weren't visible.
-                mCalendar.setTimeZone(TimeZone.getDefault());
+                applySettingsChanges(mSettings.refresh());
+
+                // Being shown again counts as an interaction.
+                noteInteraction();
             } else {
                 unregisterReceiver();
+                mStepSource.stop();
+                mStepSnapshot.flush();
 
                 if (mGoogleApiClient != null && mGoogleApiClient.isConnected()) {
+                    // Results of a fetch cycle in flight may never be delivered now.
+                    mFitnessFetcher.cancel();
                     mGoogleApiClient.disconnect();
                 }
             }
@@ -333,8 +698,7 @@ public class WatchFaceService extends CanvasWatchFaceService {
             }
             mRegisteredReceiver = true;
 
-            IntentFilter dateFilter = new IntentFilter(Intent.ACTION_TIMEZONE_CHANGED);
-            WatchFaceService.this.registerReceiver(mCalendarReceiver, dateFilter );
+            mSettings.register();
 
             IntentFilter batteryFilter = new IntentFilter(Intent.ACTION_BATTERY_CHANGED);
             WatchFaceService.this.registerReceiver(mBatteryReceiver, batteryFilter);
@@ -347,7 +711,7 @@ public class WatchFaceService extends CanvasWatchFaceService {
 
             mRegisteredReceiver = false;
 
-            WatchFaceService.this.unregisterReceiver(mCalendarReceiver);
+            mSettings.unregister();
             WatchFaceService.this.unregisterReceiver(mBatteryReceiver);
         }
 
@@ -361,26 +725,37 @@ public class WatchFaceService extends CanvasWatchFaceService {
             // Load resources that have alternate values for round watches.
             Resources resources = WatchFaceService.this.getResources();
             boolean isRound = insets.isRound();
-            mXOffset = resources.getDimension(isRound
+            float xOffset = resources.getDimension(isRound
                     ? R.dimen.fit_x_offset_round : R.dimen.fit_x_offset);
-            mXStepsOffset =  resources.getDimension(isRound
+            float xStepsOffset =  resources.getDimension(isRound
                     ? R.dimen.fit_steps_or_distance_x_offset_round : R.dimen.fit_steps_or_distance_x_offset);
             float textSize = resources.getDimension(isRound
                     ? R.dimen.fit_text_size_round : R.dimen.fit_text_size);
             float amPmSize = resources.getDimension(isRound
                     ? R.dimen.fit_am_pm_size_round : R.dimen.fit_am_pm_size);
 
-            mHourPaint.setTextSize(textSize);
-            mMinutePaint.setTextSize(textSize);
-            mSecondPaint.setTextSize(textSize);
-            mAmPmPaint.setTextSize(amPmSize);
-            mColonPaint.setTextSize(textSize);
-            mStepCountPaint.setTextSize(resources.getDimension(R.dimen.fit_steps_or_distance_text_size));
-            mDatePaint.setTextSize(resources.getDimension(R.dimen.digital_date_text_size));
-            mBattery.setTextSize(resources.getDimension(R.dimen.digital_battery_size));
-            mBatteryDevice.setTextSize(resources.getDimension(R.dimen.digital_battery_size));
-
-            mColonWidth = mColonPaint.measureText(COLON_STRING);
+            synchronized (mRenderLock) {
+                mHourPaint.setTextSize(textSize);
+                mMinutePaint.setTextSize(textSize);
+                mSecondPaint.setTextSize(textSize);
+                mColonPaint.setTextSize(textSize);
+                mStepCountPaint.setTextSize(resources.getDimension(R.dimen.fit_steps_or_distance_text_size));
+                mDatePaint.setTextSize(resources.getDimension(R.dimen.digital_date_text_size));
+                mBattery.setTextSize(resources.getDimension(R.dimen.digital_battery_size));
+                mBatteryDevice.setTextSize(resources.getDimension(R.dimen.digital_battery_size));
+
+                mLayout.setTimeLine(xOffset, mYOffset);
+                mLayout.setLines(xStepsOffset, mLineHeight);
+                // The date and steps lines have the largest text of the secondary lines.
+                Paint.FontMetrics metrics = mStepCountPaint.getFontMetrics();
+                mLayout.setLineMetrics(metrics.ascent, metrics.descent);
+                mLayout.compute();
+                mTimeLine.setPosition(xOffset, mYOffset);
+                mTextCanvas.invalidateAtlases();
+                invalidateLayers();
+
+                mAmbientRenderer.setLayout(xOffset, mYOffset, textSize, amPmSize);
+            }
         }
 
         @Override
@@ -388,10 +763,16 @@ public class WatchFaceService extends CanvasWatchFaceService {
             super.onPropertiesChanged(properties);
 
             boolean burnInProtection = properties.getBoolean(PROPERTY_BURN_IN_PROTECTION, false);
-            mHourPaint.setTypeface(burnInProtection ? NORMAL_TYPEFACE : BOLD_TYPEFACE);
-
             mLowBitAmbient = properties.getBoolean(PROPERTY_LOW_BIT_AMBIENT, false);
 
+            synchronized (mRenderLock) {
+                mHourPaint.setTypeface(burnInProtection ? NORMAL_TYPEFACE : BOLD_TYPEFACE);
+                mTextCanvas.invalidateAtlases();
+                invalidateLayers();
+
+                mAmbientRenderer.setProperties(mLowBitAmbient, burnInProtection);
+            }
+
             if (Log.isLoggable(TAG, Log.DEBUG)) {
                 Log.d(TAG, "onPropertiesChanged: burn-in protection = " + burnInProtection
                         + ", low-bit ambient = " + mLowBitAmbient);
@@ -405,189 +786,843 @@ public class WatchFaceService extends CanvasWatchFaceService {
                 Log.d(TAG, "onTimeTick: ambient = " + isInAmbientMode());
             }
 
-            getTotalSteps();
-            invalidate();
+            // In ambient mode this is the only wakeup, so it runs whatever the scheduler has due,
+            // allowing for the tick arriving early. In interactive mode the scheduler wakes up
+            // on its own and only overdue tasks are run here: the second task must not run
+            // ahead of its boundary.
+            long now = System.currentTimeMillis();
+            mScheduler.runDue(isInAmbientMode() ? now + TIME_TICK_SLACK_MS : now, now);
+            requestFullFrame();
         }
 
         @Override
         public void onAmbientModeChanged(boolean inAmbientMode) {
+            mState = mState.buildUpon().setAmbient(inAmbientMode).build();
             super.onAmbientModeChanged(inAmbientMode);
             if (Log.isLoggable(TAG, Log.DEBUG)) {
                 Log.d(TAG, "onAmbientModeChanged: " + inAmbientMode);
             }
 
-            if (mLowBitAmbient) {
-                boolean antiAlias = !inAmbientMode;;
-                mHourPaint.setAntiAlias(antiAlias);
-                mMinutePaint.setAntiAlias(antiAlias);
-                mSecondPaint.setAntiAlias(antiAlias);
-                mAmPmPaint.setAntiAlias(antiAlias);
-                mColonPaint.setAntiAlias(antiAlias);
-                mStepCountPaint.setAntiAlias(antiAlias);
-                mDatePaint.setAntiAlias(antiAlias);
+            // Ambient frames are drawn by mAmbientRenderer with its own paints, so the
+            // interactive paints and layers stay valid across mode changes.
+            requestFullFrame();
+
+            mStepPolicy.setAmbient(inAmbientMode);
+            if (!inAmbientMode) {
+                // Waking the screen up is an interaction.
+                noteInteraction();
+
+                // Show a current step total when the user looks, and start the backed off
+                // interval over from here.
+                long now = System.currentTimeMillis();
+                refreshSteps(now);
+                if (isVisible()) {
+                    mScheduler.schedule(TickScheduler.SLOT_STEPS, nextStepsRefreshMs(now));
+                }
             }
-            invalidate();
 
             // Whether the timer should be running depends on whether we're in ambient mode (as well
             // as whether we're visible), so we may need to start or stop the timer.
             updateTimer();
         }
 
-        private String formatTwoDigitNumber(int hour) {
-            return String.format("%02d", hour);
+        @Override
+        public void onTapCommand(int tapType, int x, int y, long eventTime) {
+            super.onTapCommand(tapType, x, y, eventTime);
+            if (tapType == TAP_TYPE_TOUCH || tapType == TAP_TYPE_TAP) {
+                noteInteraction();
+                updateTimer();
+            }
+        }
+
+        /**
+         * Restarts the idle timeout and leaves idle mode if needed. The caller is expected to
+         * {@link #updateTimer()} afterwards.
+         */
+        private void noteInteraction() {
+            mLastInteractionMs = System.currentTimeMillis();
+            mScheduler.cancel(TickScheduler.SLOT_IDLE);
+            if (mState.idle) {
+                mState = mState.buildUpon().setIdle(false).build();
+                mDirty.mark(DirtyTracker.MINUTE_LAYER);
+                requestFullFrame();
+            }
+        }
+
+        /**
+         * Requests a full frame: from the render thread if it is on and the face is interactive,
+         * else through {@link #invalidate()}.
+         */
+        private void requestFullFrame() {
+            if (mRenderThread != null && !isInAmbientMode()) {
+                mRenderThread.requestFrame(RenderThread.FRAME_FULL);
+            } else {
+                invalidate();
+            }
+        }
+
+        /**
+         * Runs {@code task}, which takes {@link #mRenderLock} itself, on the thread that draws
+         * the frames: posted to the render thread if it is on, else right away.
+         */
+        private void runOnRenderer(Runnable task) {
+            RenderThread renderThread = mRenderThread;
+            if (renderThread != null) {
+                renderThread.post(task);
+            } else {
+                task.run();
+            }
+        }
+
+        /**
+         * Runs {@code task} after the current frame on the thread that draws the frames of the
+         * current mode, dropping an earlier post that did not run yet.
+         */
+        private void postOnRenderer(Runnable task) {
+            RenderThread renderThread = mRenderThread;
+            if (renderThread != null && !mState.ambient) {
+                renderThread.post(task);
+            } else {
+                mMainHandler.removeCallbacks(task);
+                mMainHandler.post(task);
+            }
+        }
+
+        /** Starts or stops drawing frames on a {@link RenderThread}. */
+        private void setRenderThreadEnabled(boolean enabled) {
+            if (enabled == (mRenderThread != null)) {
+                return;
+            }
+            if (enabled) {
+                mRenderThread = new RenderThread(this);
+                requestFullFrame();
+            } else {
+                // Waits for a frame in progress, so nothing draws on the surface afterwards.
+                mRenderThread.quit();
+                mRenderThread = null;
+            }
+        }
+
+        @Override // RenderThread.Renderer
+        public void renderFrame(int frames) {
+            if (mState.ambient) {
+                // Requested before the face went ambient; onDraw draws the ambient frames.
+                return;
+            }
+            if ((frames & RenderThread.FRAME_FULL) == 0
+                    && drawPartialFrame((frames & RenderThread.FRAME_SECONDS) != 0)) {
+                return;
+            }
+            SurfaceHolder holder = getSurfaceHolder();
+            synchronized (mRenderLock) {
+                Canvas canvas = holder.lockCanvas();
+                if (canvas == null) {
+                    // No valid surface; it is drawn again once there is one.
+                    return;
+                }
+                try {
+                    drawAndRecordFrame(canvas, holder.getSurfaceFrame());
+                } finally {
+                    holder.unlockCanvasAndPost(canvas);
+                }
+            }
         }
 
-        private String getAmPmString(int amPm) {
-            return amPm == Calendar.AM ? mAmString : mPmString;
+        @Override // FaceSettings.Listener
+        public void onSettingsChanged(int changes) {
+            applySettingsChanges(changes);
+        }
+
+        /** Drops only the cached state that depends on the settings that changed. */
+        private void applySettingsChanges(int changes) {
+            if ((changes & FaceSettings.CHANGED_TIME_ZONE) != 0) {
+                // The layer keys count minutes and days in absolute time, but the hours drawn
+                // for them are local. A changed local day changes the day key by itself.
+                synchronized (mRenderLock) {
+                    mTimeDecomposer.setTimeZone(mSettings.getTimeZone());
+                }
+                mScheduleDecomposer.setTimeZone(mSettings.getTimeZone());
+                mDirty.mark(DirtyTracker.MINUTE_LAYER | DirtyTracker.AMBIENT_FRAME);
+            }
+            if ((changes & FaceSettings.CHANGED_LOCALE) != 0) {
+                // The date, the line templates and the ambient AM/PM; the minute layer is rebuilt
+                // from the day layer.
+                synchronized (mRenderLock) {
+                    mDateKey = -1;
+                    loadTemplates(getResources());
+                }
+                mDirty.mark(DirtyTracker.DAY_LAYER | DirtyTracker.AMBIENT_FRAME);
+            }
+            if ((changes & FaceSettings.CHANGED_TIME) != 0) {
+                // Every deadline was computed against the old clock.
+                mScheduler.cancelAll();
+            }
+            if ((changes & (FaceSettings.CHANGED_TIME | FaceSettings.CHANGED_TIME_ZONE)) != 0) {
+                updateTimer();
+            }
+            // CHANGED_24_HOUR needs nothing: the setting is part of the minute key.
         }
 
         @Override
         public void onDraw(Canvas canvas, Rect bounds) {
-            long now = System.currentTimeMillis();
-            mCalendar.setTimeInMillis(now);
-            boolean is24Hour = DateFormat.is24HourFormat(WatchFaceService.this);
+            // Draws the ambient frames, and in render thread mode also the interactive frames
+            // the system asks for itself.
+            synchronized (mRenderLock) {
+                drawAndRecordFrame(canvas, bounds);
+            }
+        }
+
+        /** Draws a full frame and feeds its duration to the stats and the governor. */
+        private void drawAndRecordFrame(Canvas canvas, Rect bounds) {
+            long startNs = System.nanoTime();
+            mFrameState = mState;
+            boolean ambient = mFrameState.ambient;
+            drawFrame(canvas, bounds);
+            long durationNs = System.nanoTime() - startNs;
+            mFrameStats.recordDraw(ambient, durationNs);
+            if (mLitMeter.isSampleDue(ambient ? LitPixelMeter.MODE_AMBIENT
+                    : LitPixelMeter.MODE_INTERACTIVE, System.currentTimeMillis())) {
+                postOnRenderer(mSampleLitPixels);
+            }
+            if (!ambient) {
+                mFrameStats.recordFullFill(bounds.width() * bounds.height());
+                recordGovernorFrame(FrameBudgetGovernor.FRAME_FULL, durationNs);
+            }
+        }
 
-            // Draw the background.
+        /** Feeds an interactive frame to the governor and applies a quality change it makes. */
+        private void recordGovernorFrame(int kind, long durationNs) {
+            if (mGovernor.recordFrame(kind, durationNs, System.currentTimeMillis())) {
+                applyQuality();
+                // The Choreographer belongs to the main thread.
+                mMainHandler.post(mQualityChanged);
+            }
+        }
 
-            canvas.drawBitmap(mBackgroundScaledBitmap, 0, 0, null);
+        /**
+         * Redraws only what moved since the last frame, straight onto the surface, when nothing
+         * else on the face changed: the seconds digits if {@code seconds} is set, and the part of
+         * the arc that grew if the smooth seconds arc is on.
+         *
+         * @return false if a full frame is needed instead
+         */
+        private boolean drawPartialFrame(boolean seconds) {
+            synchronized (mRenderLock) {
+                return drawPartialFrameLocked(seconds);
+            }
+        }
 
-            // Draw the hours.
-            float x = mXOffset;
-            String hourString;
-            if (is24Hour) {
-                hourString = formatTwoDigitNumber(mCalendar.get(Calendar.HOUR_OF_DAY));
-            } else {
-                int hour = mCalendar.get(Calendar.HOUR);
-                if (hour == 0) {
-                    hour = 12;
+        private boolean drawPartialFrameLocked(boolean seconds) {
+            applyDirty();
+            mFrameState = mState;
+            if (mFrameState.ambient || mSecondsRect.isEmpty()) {
+                return false;
+            }
+            long startNs = System.nanoTime();
+            long now = System.currentTimeMillis();
+            mTimeDecomposer.decompose(now, mTime);
+            if (!mMinuteLayer.isValid(mTime.getMinuteKey(mSettings.is24Hour()))) {
+                return false;
+            }
+
+            long arcMs = now % MINUTE_MS;
+            mDirtyRect.setEmpty();
+            if (seconds) {
+                mDirtyRect.set(mSecondsRect);
+            }
+            if (mFrameState.smoothSeconds) {
+                if (arcMs < mArcDrawnMs) {
+                    // The arc starts over, which is a new minute anyway.
+                    return false;
                 }
-                hourString = String.valueOf(hour);
+                mSecondsArc.getDirtyBounds(mArcDrawnMs, arcMs, mArcRect);
+                mDirtyRect.union(mArcRect);
+            }
+            if (mDirtyRect.isEmpty()) {
+                return true;
             }
-            canvas.drawText(hourString, x, mYOffset, mHourPaint);
-            x += mHourPaint.measureText(hourString);
 
-            // Draw first colon (between hour and minute).
-            canvas.drawText(COLON_STRING, x, mYOffset, mColonPaint);
+            SurfaceHolder holder = getSurfaceHolder();
+            Canvas canvas = holder.lockCanvas(mDirtyRect);
+            if (canvas == null) {
+                return false;
+            }
+            try {
+                // The surface may hand back a larger dirty rect than asked for (e.g. when it
+                // could not keep the previous buffer); the canvas is clipped to it, and the
+                // minute layer plus the dynamic items is a complete frame for any rect.
+                mMinuteLayer.draw(canvas);
+                drawDynamicItems(canvas, arcMs);
+            } finally {
+                holder.unlockCanvasAndPost(canvas);
+            }
+            Rect frame = holder.getSurfaceFrame();
+            long durationNs = System.nanoTime() - startNs;
+            mFrameStats.recordPartialDraw(durationNs,
+                    mDirtyRect.width() * mDirtyRect.height(), frame.width() * frame.height());
+            recordGovernorFrame(FrameBudgetGovernor.FRAME_PARTIAL, durationNs);
+            if (!seconds) {
+                mArcFrameCostNs = (mArcFrameCostNs * 7 + durationNs) / 8;
+                mArcFps = SecondsArc.selectFps(mArcFrameCostNs, mFrameState.batteryPercentage);
+            }
+            return true;
+        }
 
-            x += mColonWidth;
+        /** Draws what changes more often than once a minute: the seconds and the arc. */
+        private void drawDynamicItems(Canvas canvas, long arcMs) {
+            if (mFrameState.idle) {
+                return;
+            }
+            mTimeLine.drawSeconds(mTextCanvas.wrap(canvas), mTime, mSecondsX);
+            if (mFrameState.smoothSeconds) {
+                mSecondsArc.draw(canvas, arcMs);
+                mArcDrawnMs = arcMs;
+            }
+        }
 
-            // Draw the minutes.
-            String minuteString = formatTwoDigitNumber(mCalendar.get(Calendar.MINUTE));
-            canvas.drawText(minuteString, x, mYOffset, mMinutePaint);
-            x += mMinutePaint.measureText(minuteString);
+        private boolean shouldAnimateArc() {
+            return mState.smoothSeconds && shouldTimerBeRunning()
+                    && mGovernor.getQuality() == FrameBudgetGovernor.QUALITY_FULL;
+        }
 
-            // In interactive mode, draw a second colon followed by the seconds.
-            // Otherwise, if we're in 12-hour mode, draw AM/PM
-            if (!isInAmbientMode()) {
-                canvas.drawText(COLON_STRING, x, mYOffset, mColonPaint);
-
-                x += mColonWidth;
-                canvas.drawText(formatTwoDigitNumber(
-                        mCalendar.get(Calendar.SECOND)), x, mYOffset, mSecondPaint);
-            } else if (!is24Hour) {
-                x += mColonWidth;
-                canvas.drawText(getAmPmString(
-                        mCalendar.get(Calendar.AM_PM)), x, mYOffset, mAmPmPaint);
-            }
-
-            // Only render steps if there is no peek card, so they do not bleed into each other
-            // in ambient mode.
-            if (getPeekCardPosition().isEmpty()) {
-                canvas.drawText(
-                        getString(R.string.fit_steps, mStepsTotal),
-                        mXStepsOffset,
-                        mYOffset + mLineHeight,
-                        mStepCountPaint);
+        /** Starts or stops the arc animation, leaving the arc to the 1 Hz tick when stopped. */
+        private void updateArcAnimation() {
+            boolean animate = shouldAnimateArc();
+            if (animate && !mArcFramePosted) {
+                mLastArcFrameNs = 0;
+                mChoreographer.postFrameCallback(mArcFrameCallback);
+                mArcFramePosted = true;
+            } else if (!animate && mArcFramePosted) {
+                mChoreographer.removeFrameCallback(mArcFrameCallback);
+                mArcFramePosted = false;
+            }
+        }
 
-                // Date
-                canvas.drawText(
-                        mDateFormat.format(mDate),
-                        mXStepsOffset,
-                        mYOffset + mLineHeight * 2,
-                        mDatePaint);
+        /** Computes {@link #mSecondsRect} from the seconds position and the glyph metrics. */
+        private void updateSecondsRect(int width, int height) {
+            float digitWidth = 0;
+            for (int i = 0; i < DIGITS.length; i++) {
+                digitWidth = Math.max(digitWidth,
+                        mTextCanvas.measureText(DIGITS, i, 1, TextCanvas.STYLE_SECOND));
+            }
+            mSecondPaint.getFontMetrics(mSecondFontMetrics);
+            float baseline = mTimeLine.getBaseline();
+            mSecondsRect.set(
+                    (int) Math.floor(mSecondsX),
+                    (int) Math.floor(baseline + mSecondFontMetrics.top),
+                    (int) Math.ceil(mSecondsX + 2 * digitWidth),
+                    (int) Math.ceil(baseline + mSecondFontMetrics.bottom));
+            if (!mSecondsRect.intersect(0, 0, width, height)) {
+                mSecondsRect.setEmpty();
+            }
+        }
 
-                // Battery
-                if (mBatteryPercentage >= 75)
-                    mBattery.setColor(TEXT_BATTERY_HIGH);
-                else if (mBatteryPercentage <= 25)
-                    mBattery.setColor(TEXT_BATTERY_LOW);
-                else
-                    mBattery.setColor(TEXT_BATTERY_MEDIUM);
-
-                canvas.drawText(
-                        getString(R.string.fit_battery, mBatteryPercentage) + "% (Relógio)",
-                        mXStepsOffset,
-                        mYOffset + mLineHeight * 3,
-                        mBattery);
+        void dump(PrintWriter writer, String prefix) {
+            synchronized (mRenderLock) {
+                dumpLocked(writer, prefix);
+            }
+        }
 
-                // Battery Device
+        private void dumpLocked(PrintWriter writer, String prefix) {
+            FaceState state = mState;
+            writer.print(prefix);
+            writer.print("visible=");
+            writer.print(isVisible());
+            writer.print(" ambient=");
+            writer.print(isInAmbientMode());
+            writer.print(" glyphAtlas=");
+            writer.print(mTextCanvas.isUsingAtlas());
+            writer.print(" partialSeconds=");
+            writer.print(PARTIAL_SECONDS_UPDATES);
+            writer.print(" renderThread=");
+            writer.println(mRenderThread != null);
+            if (mRenderThread != null) {
+                mRenderThread.dump(writer, prefix);
+            }
+            writer.print(prefix);
+            writer.print("layer rebuilds: day=");
+            writer.print(mDayLayer.getRebuildCount());
+            writer.print(" minute=");
+            writer.println(mMinuteLayer.getRebuildCount());
+            writer.print(prefix);
+            writer.print("time zone offset lookups: ");
+            writer.println(mTimeDecomposer.getRefreshCount());
+            mScheduler.dump(writer, prefix);
+            mDirty.dump(writer, prefix);
+            mGovernor.dump(writer, prefix);
+            writer.print(prefix);
+            writer.print("layout: lines=");
+            writer.print(mLayout.getVisibleLineCount());
+            writer.print(" columns=");
+            writer.print(mLayout.getColumns());
+            writer.print(" pitch=");
+            writer.print(mLayout.getLinePitch());
+            writer.print(" computed=");
+            writer.println(mLayout.getComputeCount());
+            mLitMeter.dump(writer, prefix);
+            writer.print(prefix);
+            writer.print("ambient frames: ready=");
+            writer.print(mAmbientFramesReady);
+            writer.print(" late=");
+            writer.print(mAmbientFramesLate);
+            writer.print(" rendered=");
+            writer.println(mAmbientRenderer.getRenderCount());
+            writer.print(prefix);
+            writer.print("idle: timeout=");
+            writer.print(mIdleTimeoutMs);
+            writer.print("ms idle=");
+            writer.print(state.idle);
+            writer.print(" entered=");
+            writer.println(mIdleCount);
+            writer.print(prefix);
+            writer.print("seconds arc: enabled=");
+            writer.print(state.smoothSeconds);
+            writer.print(" animating=");
+            writer.print(mArcFramePosted);
+            writer.print(" fps=");
+            writer.print(mArcFps);
+            writer.print(" frameCost=");
+            writer.print(TimeUnit.NANOSECONDS.toMicros(mArcFrameCostNs));
+            writer.println("us");
+            mStepSource.dump(writer, prefix);
+            mStepPolicy.dump(writer, prefix);
+            mFitnessFetcher.dump(writer, prefix, System.currentTimeMillis());
+            mStepSnapshot.dump(writer, prefix);
+            if (mStepHistory != null) {
+                mStepHistory.dump(writer, prefix);
+            }
+            writer.print(prefix);
+            writer.print("sparkline: rebuilds=");
+            writer.print(mSparkline.getRebuildCount());
+            writer.print(" bar updates=");
+            writer.println(mSparkline.getBarUpdateCount());
+            mFrameStats.dump(writer, prefix);
+            mEnergyProfiler.dump(writer, prefix, System.currentTimeMillis());
+        }
+
+        private void drawFrame(Canvas canvas, Rect bounds) {
+            applyDirty();
+            long now = System.currentTimeMillis();
+            mTimeDecomposer.decompose(now, mTime);
+            boolean is24Hour = mSettings.is24Hour();
+
+            int width = bounds.width();
+            int height = bounds.height();
+            long minuteKey = mTime.getMinuteKey(is24Hour);
+
+            if (mFrameState.ambient) {
+                if (renderAmbientFrame(mTime, is24Hour, width, height)) {
+                    mAmbientFramesLate++;
+                } else {
+                    mAmbientFramesReady++;
+                }
+                mAmbientRenderer.draw(canvas, minuteKey);
+                // Render the next minute once this frame is posted, while the CPU is awake
+                // anyway, so that the next time tick is a single blit as well.
+                postOnRenderer(mPrepareAmbientFrames);
+                return;
+            }
 
-                if (mBatteryDeviceReceived) {
+            // The frame is composited from cached layers: the day layer (background and date) is
+            // copied into the minute layer (time, steps and battery), and only the seconds are
+            // drawn on top of it every tick.
+            long dayKey = mTime.dayKey;
+            if (!mDayLayer.isValid(dayKey)) {
+                updateDateChars(dayKey, now);
+                drawDayItems(mDayLayer.beginRender(width, height));
+                mDayLayer.endRender(dayKey);
+                mMinuteLayer.invalidate();
+            }
 
-                    if (mBatteryDevicePercentage >= 75)
-                        mBatteryDevice.setColor(TEXT_BATTERY_HIGH);
-                    else if (mBatteryDevicePercentage <= 25)
-                        mBatteryDevice.setColor(TEXT_BATTERY_LOW);
-                    else
-                        mBatteryDevice.setColor(TEXT_BATTERY_MEDIUM);
+            if (!mMinuteLayer.isValid(minuteKey)) {
+                Canvas minuteCanvas = mMinuteLayer.beginRender(width, height);
+                mDayLayer.draw(minuteCanvas);
+                mSecondsX = drawMinuteItems(minuteCanvas, is24Hour);
+                mMinuteLayer.endRender(minuteKey);
+                updateSecondsRect(width, height);
+            }
 
-                    canvas.drawText(
-                            getString(R.string.fit_battery, mBatteryDevicePercentage) + "% (Celular)",
-                            mXStepsOffset,
-                            mYOffset + mLineHeight * 4,
-                            mBatteryDevice);
+            mMinuteLayer.draw(canvas);
+            drawDynamicItems(canvas, now % MINUTE_MS);
+        }
+
+        /**
+         * Renders the ambient frame for {@code time} unless it is cached already.
+         *
+         * @return whether it had to be rendered
+         */
+        private boolean renderAmbientFrame(TimeFields time, boolean is24Hour, int width,
+                int height) {
+            long minuteKey = time.getMinuteKey(is24Hour);
+            if (mAmbientRenderer.isValid(minuteKey)) {
+                return false;
+            }
+            int hourLength = mTimeLine.formatHoursAndMinutes(time, is24Hour);
+            mAmbientRenderer.render(width, height, minuteKey,
+                    mTimeLine.getHourChars(), hourLength, mTimeLine.getMinuteChars(),
+                    is24Hour ? null : mSettings.getAmPmString(time.isAm()));
+            return true;
+        }
+
+        /**
+         * Makes sure the ambient frames for the current and the next minute are cached, so that
+         * entering ambient mode or the next time tick only has to blit one.
+         */
+        private void prepareAmbientFrames(long nowMs) {
+            synchronized (mRenderLock) {
+                applyDirty();
+                Rect frame = getSurfaceHolder().getSurfaceFrame();
+                if (frame.isEmpty()) {
+                    return;
                 }
+                boolean is24Hour = mSettings.is24Hour();
+                mTimeDecomposer.decompose(nowMs, mAmbientTime);
+                renderAmbientFrame(mAmbientTime, is24Hour, frame.width(), frame.height());
+                mTimeDecomposer.decompose(TickScheduler.nextBoundary(nowMs, MINUTE_MS),
+                        mAmbientTime);
+                renderAmbientFrame(mAmbientTime, is24Hour, frame.width(), frame.height());
+            }
+        }
 
+        /**
+         * Samples the bitmap the current frame was composited from: the minute layer, which
+         * only lacks the seconds, or the ambient frame. Warns when an ambient frame goes over
+         * the lit pixel limit.
+         */
+        private void sampleLitPixels() {
+            boolean ambient = mState.ambient;
+            DataMap report = new DataMap();
+            synchronized (mRenderLock) {
+                Bitmap frame = ambient
+                        ? mAmbientRenderer.getDrawnBitmap() : mMinuteLayer.getBitmap();
+                if (frame == null) {
+                    return;
+                }
+                int mode = ambient ? LitPixelMeter.MODE_AMBIENT : LitPixelMeter.MODE_INTERACTIVE;
+                boolean overLimit = mLitMeter.sample(mode, frame, System.currentTimeMillis());
+                if (ambient) {
+                    if (overLimit && !mAmbientOverLitLimit) {
+                        Log.w(TAG, "Ambient frame lights up "
+                                + Math.round(mLitMeter.getLitRatio(mode) * 100)
+                                + "% of the screen, over the limit of "
+                                + mLitMeter.getAmbientLimitPercent() + "%");
+                    }
+                    mAmbientOverLitLimit = overLimit;
+                }
+                report.putFloat(WatchFaceUtil.KEY_LIT_INTERACTIVE_RATIO,
+                        mLitMeter.getLitRatio(LitPixelMeter.MODE_INTERACTIVE));
+                report.putFloat(WatchFaceUtil.KEY_LIT_INTERACTIVE_LUMINANCE,
+                        mLitMeter.getLuminance(LitPixelMeter.MODE_INTERACTIVE));
+                report.putFloat(WatchFaceUtil.KEY_LIT_AMBIENT_RATIO,
+                        mLitMeter.getLitRatio(LitPixelMeter.MODE_AMBIENT));
+                report.putFloat(WatchFaceUtil.KEY_LIT_AMBIENT_LUMINANCE,
+                        mLitMeter.getLuminance(LitPixelMeter.MODE_AMBIENT));
+                report.putBoolean(WatchFaceUtil.KEY_LIT_AMBIENT_OVER_LIMIT, mAmbientOverLitLimit);
+            }
+            if (mGoogleApiClient.isConnected()) {
+                WatchFaceUtil.putLitPixelsDataItem(mGoogleApiClient, report);
             }
         }
 
+        /** Returns when to prepare the ambient frames next: shortly before the next minute. */
+        private long nextAmbientPrepareMs(long nowMs) {
+            return TickScheduler.nextBoundary(nowMs + AMBIENT_PREPARE_LEAD_MS, MINUTE_MS)
+                    - AMBIENT_PREPARE_LEAD_MS;
+        }
+
         /**
-         * Starts the {@link #mUpdateTimeHandler} timer if it should be running and isn't currently
-         * or stops it if it shouldn't be running but currently is.
+         * Formats the date into {@link #mDateChars}. This is the only place that still goes
+         * through {@link java.text.DateFormat}, and it only runs when the day changes.
          */
-        private void updateTimer() {
+        private void updateDateChars(long dayKey, long now) {
+            if (dayKey == mDateKey) {
+                return;
+            }
+            mDate.setTime(now);
+            String date = mSettings.getDateFormat().format(mDate);
+            if (mDateChars.length < date.length()) {
+                mDateChars = new char[date.length()];
+            }
+            date.getChars(0, date.length(), mDateChars, 0);
+            mDateLength = date.length();
+            mDateKey = dayKey;
+        }
+
+        /**
+         * Sets up the interactive paints for the governor's quality level. Called with the render
+         * lock held; the caller updates the arc animation on the main thread.
+         */
+        private void applyQuality() {
+            int quality = mGovernor.getQuality();
             if (Log.isLoggable(TAG, Log.DEBUG)) {
-                Log.d(TAG, "updateTimer");
+                Log.d(TAG, "Frame quality level " + quality);
             }
-            mUpdateTimeHandler.removeMessages(MSG_UPDATE_TIME);
-            if (shouldUpdateTimeHandlerBeRunning()) {
-                mUpdateTimeHandler.sendEmptyMessage(MSG_UPDATE_TIME);
+            boolean antiAlias = quality < FrameBudgetGovernor.QUALITY_NO_ANTI_ALIAS;
+            mHourPaint.setAntiAlias(antiAlias);
+            mMinutePaint.setAntiAlias(antiAlias);
+            mSecondPaint.setAntiAlias(antiAlias);
+            mColonPaint.setAntiAlias(antiAlias);
+            mStepCountPaint.setAntiAlias(antiAlias);
+            mDatePaint.setAntiAlias(antiAlias);
+            mBattery.setAntiAlias(antiAlias);
+            mBatteryDevice.setAntiAlias(antiAlias);
+            mSecondsArc.setAntiAlias(antiAlias);
+            // The glyph atlases notice the anti-alias change and rebuild themselves.
+            mDirty.mark(DirtyTracker.DAY_LAYER);
+        }
+
+        /**
+         * Returns whether the quality level leaves the date, steps and battery lines in. Which
+         * of them fit next to a peeking card is up to {@link #mLayout}.
+         */
+        private boolean shouldDrawSecondaryLines() {
+            return mGovernor.getQuality() < FrameBudgetGovernor.QUALITY_NO_SECONDARY_LINES;
+        }
+
+        /** Draws a secondary line where the layout put it, if it put it anywhere. */
+        private void drawSecondaryLine(Canvas canvas, int line, char[] text, int length,
+                Paint paint) {
+            if (!mLayout.isLineVisible(line)) {
+                return;
             }
+            canvas.save();
+            canvas.clipRect(mLayout.getLineClipLeft(line), mLayout.getLineClipTop(line),
+                    mLayout.getLineClipRight(line), mLayout.getLineClipBottom(line));
+            canvas.drawText(text, 0, length,
+                    mLayout.getLineX(line), mLayout.getLineBaseline(line), paint);
+            canvas.restore();
         }
 
         /**
-         * Returns whether the {@link #mUpdateTimeHandler} timer should be running. The timer should
-         * only run when we're visible and in interactive mode.
+         * Draws the activity sparkline where the layout put its line, as wide as the line with
+         * the same margin on the right as on the left.
          */
-        private boolean shouldUpdateTimeHandlerBeRunning() {
-            return isVisible() && !isInAmbientMode();
+        private void drawSparkline(Canvas canvas) {
+            int line = FaceLayout.LINE_ACTIVITY;
+            if (!mLayout.isLineVisible(line)) {
+                return;
+            }
+            float left = mLayout.getLineClipLeft(line);
+            float top = mLayout.getLineClipTop(line);
+            float right = Math.min(mLayout.getLineClipRight(line), canvas.getWidth() - left);
+            int width = (int) (right - left);
+            int height = (int) (mLayout.getLineClipBottom(line) - top);
+            if (width >= SparklineLayer.BARS && height > 0) {
+                mSparkline.draw(canvas, left, top, width, height);
+            }
         }
 
-        private void getTotalSteps() {
-            if (Log.isLoggable(TAG, Log.DEBUG)) {
-                Log.d(TAG, "getTotalSteps()");
+        /**
+         * Invalidates whatever the changes since the last frame made stale, and applies what
+         * {@link #mState} says about the rendering options and which lines have content.
+         */
+        private void applyDirty() {
+            int dirty = mDirty.takePending();
+            if ((dirty & DirtyTracker.DAY_LAYER) != 0) {
+                mDayLayer.invalidate();
+                mMinuteLayer.invalidate();
+            }
+            if ((dirty & DirtyTracker.MINUTE_LAYER) != 0) {
+                mMinuteLayer.invalidate();
+            }
+            if ((dirty & DirtyTracker.AMBIENT_FRAME) != 0) {
+                mAmbientRenderer.invalidate();
+            }
+            FaceState state = mState;
+            if (state.glyphAtlas != mTextCanvas.isUsingAtlas()) {
+                mTextCanvas.setUseAtlas(state.glyphAtlas);
+                mMinuteLayer.invalidate();
+            }
+            // Lines without content leave their room to the others.
+            boolean layoutChanged = mLayout.setLineHasContent(FaceLayout.LINE_BATTERY_DEVICE,
+                    state.batteryDeviceReceived);
+            layoutChanged |= mLayout.setLineHasContent(FaceLayout.LINE_DISTANCE,
+                    state.fitness.has(FitnessTotals.METRIC_DISTANCE));
+            layoutChanged |= mLayout.setLineHasContent(FaceLayout.LINE_CALORIES,
+                    state.fitness.has(FitnessTotals.METRIC_CALORIES));
+            layoutChanged |= mLayout.setLineHasContent(FaceLayout.LINE_ACTIVITY,
+                    mStepHistory != null && mSparkline.hasSteps());
+            if (layoutChanged) {
+                mLayout.compute();
+                invalidateLayers();
+            }
+        }
+
+        /**
+         * Marks every cached layer stale, e.g. after paints, fonts or the layout changed.
+         */
+        private void invalidateLayers() {
+            mDayLayer.invalidate();
+            mMinuteLayer.invalidate();
+            mSecondsRect.setEmpty();
+        }
+
+        /**
+         * Draws the background and the items that change at most once a day.
+         */
+        private void drawDayItems(Canvas canvas) {
+            if (mGovernor.getQuality() >= FrameBudgetGovernor.QUALITY_FLAT_BACKGROUND
+                    || mBackgroundScaledBitmap == null) {
+                canvas.drawColor(BACKGROUND_COLOR);
+            } else {
+                canvas.drawBitmap(mBackgroundScaledBitmap, 0, 0, null);
             }
 
-            if ((mGoogleApiClient != null)
-                    && (mGoogleApiClient.isConnected())
-                    && (!mStepsRequested)) {
+            if (shouldDrawSecondaryLines()) {
+                drawSecondaryLine(canvas, FaceLayout.LINE_DATE, mDateChars, mDateLength,
+                        mDatePaint);
+            }
+        }
 
-                mStepsRequested = true;
+        /**
+         * Draws the hours, the minutes and the items that change at most once a minute or when
+         * their data arrives.
+         *
+         * @return the x coordinate where the seconds (or AM/PM) start
+         */
+        private float drawMinuteItems(Canvas canvas, boolean is24Hour) {
+            long timeLineStartNs = System.nanoTime();
+            // The second colon belongs to the minute layer, only the digits change per tick.
+            float x = mTimeLine.drawHoursAndMinutes(mTextCanvas.wrap(canvas), mTime, is24Hour,
+                    !mFrameState.idle /* secondsColon */);
+            if (Log.isLoggable(TAG, Log.VERBOSE)) {
+                Log.v(TAG, "time line drawn in " + (System.nanoTime() - timeLineStartNs)
+                        + "ns, atlas = " + mTextCanvas.isUsingAtlas());
+            }
 
-                PendingResult<DailyTotalResult> stepsResult =
-                        Fitness.HistoryApi.readDailyTotal(
-                                mGoogleApiClient,
-                                DataType.TYPE_STEP_COUNT_DELTA);
+            FaceState state = mFrameState;
+            if (shouldDrawSecondaryLines()) {
+                drawSecondaryLine(canvas, FaceLayout.LINE_STEPS, mLineChars,
+                        mStepsTemplate.formatInt(mLineChars, state.stepsTotal),
+                        mStepCountPaint);
 
-                stepsResult.setResultCallback(this);
+                // Battery
+                mBattery.setColor(BatteryLevel.selectColor(state.batteryPercentage,
+                        TEXT_BATTERY_HIGH, TEXT_BATTERY_MEDIUM, TEXT_BATTERY_LOW));
+                drawSecondaryLine(canvas, FaceLayout.LINE_BATTERY, mLineChars,
+                        mBatteryTemplate.formatRounded(mLineChars, state.batteryPercentage),
+                        mBattery);
+
+                // Battery Device
+
+                if (state.batteryDeviceReceived) {
+                    mBatteryDevice.setColor(BatteryLevel.selectColor(state.batteryDevicePercentage,
+                            TEXT_BATTERY_HIGH, TEXT_BATTERY_MEDIUM, TEXT_BATTERY_LOW));
+                    drawSecondaryLine(canvas, FaceLayout.LINE_BATTERY_DEVICE, mLineChars,
+                            mBatteryDeviceTemplate.formatRounded(mLineChars,
+                                    state.batteryDevicePercentage),
+                            mBatteryDevice);
+                }
+
+                if (state.fitness.has(FitnessTotals.METRIC_DISTANCE)) {
+                    drawSecondaryLine(canvas, FaceLayout.LINE_DISTANCE, mLineChars,
+                            mDistanceTemplate.formatRounded(mLineChars,
+                                    state.fitness.distanceMeters),
+                            mStepCountPaint);
+                }
+                if (state.fitness.has(FitnessTotals.METRIC_CALORIES)) {
+                    drawSecondaryLine(canvas, FaceLayout.LINE_CALORIES, mLineChars,
+                            mCaloriesTemplate.formatRounded(mLineChars, state.fitness.calories),
+                            mStepCountPaint);
+                }
+                if (mStepHistory != null) {
+                    drawSparkline(canvas);
+                }
             }
+            return x;
         }
 
+        /**
+         * Arms the scheduler for the current visibility and mode: the data deadlines while
+         * visible, the second tick and the ambient frame preparation only while interactive, and
+         * wakeups of its own only while interactive too, since in ambient mode the time tick
+         * drives it.
+         */
+        private void updateTimer() {
+            if (Log.isLoggable(TAG, Log.DEBUG)) {
+                Log.d(TAG, "updateTimer");
+            }
+            // Every change of visibility, mode or idleness ends up here.
+            mEnergyProfiler.setState(getEnergyState(), System.currentTimeMillis());
+            if (!isVisible()) {
+                mScheduler.setWakeupsEnabled(false);
+                mScheduler.cancelAll();
+                return;
+            }
+            long now = System.currentTimeMillis();
+            if (!mScheduler.isScheduled(TickScheduler.SLOT_STEPS)) {
+                mScheduler.schedule(TickScheduler.SLOT_STEPS, nextStepsRefreshMs(now));
+            }
+            mScheduler.schedule(TickScheduler.SLOT_MIDNIGHT,
+                    mScheduleDecomposer.nextLocalMidnight(now));
+            if (shouldTimerBeRunning()) {
+                mScheduler.schedule(TickScheduler.SLOT_SECOND,
+                        TickScheduler.nextBoundary(now, ACTIVE_INTERVAL_MS));
+            } else {
+                mScheduler.cancel(TickScheduler.SLOT_SECOND);
+            }
+            if (mIdleTimeoutMs > 0 && shouldTimerBeRunning()) {
+                if (!mScheduler.isScheduled(TickScheduler.SLOT_IDLE)) {
+                    mScheduler.schedule(TickScheduler.SLOT_IDLE,
+                            Math.max(now, mLastInteractionMs + mIdleTimeoutMs));
+                }
+            } else {
+                mScheduler.cancel(TickScheduler.SLOT_IDLE);
+            }
+            // In ambient mode each frame prepares the next one itself.
+            if (!isInAmbientMode()) {
+                if (!mScheduler.isScheduled(TickScheduler.SLOT_AMBIENT)) {
+                    mScheduler.schedule(TickScheduler.SLOT_AMBIENT, nextAmbientPrepareMs(now));
+                }
+            } else {
+                mScheduler.cancel(TickScheduler.SLOT_AMBIENT);
+            }
+            mScheduler.setWakeupsEnabled(shouldTimerBeRunning());
+            updateArcAnimation();
+        }
+
+        private int getEnergyState() {
+            if (!isVisible()) {
+                return EnergyProfiler.STATE_INVISIBLE;
+            } else if (isInAmbientMode()) {
+                return EnergyProfiler.STATE_AMBIENT;
+            } else if (mState.idle) {
+                return EnergyProfiler.STATE_IDLE;
+            }
+            return EnergyProfiler.STATE_INTERACTIVE;
+        }
+
+        /** Returns the rendering strategy in {@link EnergyProfiler} bits. Main thread only. */
+        private int getEnergyStrategy() {
+            int strategy = mGovernor.getQuality() << EnergyProfiler.STRATEGY_QUALITY_SHIFT;
+            if (mRenderThread != null) {
+                strategy |= EnergyProfiler.STRATEGY_RENDER_THREAD;
+            }
+            if (mState.smoothSeconds) {
+                strategy |= EnergyProfiler.STRATEGY_SMOOTH_SECONDS;
+            }
+            if (mState.glyphAtlas) {
+                strategy |= EnergyProfiler.STRATEGY_GLYPH_ATLAS;
+            }
+            return strategy;
+        }
 
+        private void updateEnergyStrategy() {
+            mEnergyProfiler.setStrategy(getEnergyStrategy(), System.currentTimeMillis());
+        }
+
+        /**
+         * Returns whether the second tick should be running. It should only run when we're
+         * visible and in interactive mode, and not idle.
+         */
+        private boolean shouldTimerBeRunning() {
+            return isVisible() && !isInAmbientMode() && !mState.idle;
+        }
 
         @Override
         public void onConnectionSuspended(int cause) {
             Log.d(TAG, "mGoogleApiAndFitCallbacks.onConnectionSuspended: " + cause);
+            mFitnessFetcher.cancel();
             Wearable.DataApi.removeListener(mGoogleApiClient, this);
         }
 
@@ -606,9 +1641,18 @@ public class WatchFaceService extends CanvasWatchFaceService {
 
             // The subscribe step covers devices that do not have Google Fit installed.
             subscribeToSteps();
-            getTotalSteps();
+            refreshSteps(System.currentTimeMillis());
 
-            mStepsRequested = false;
+            // Changes made while the face was not connected arrive with no data event.
+            WatchFaceUtil.fetchConfigDataMap(mGoogleApiClient,
+                    new WatchFaceUtil.FetchConfigDataMapCallback() {
+                        @Override
+                        public void onConfigDataMapFetched(DataMap config) {
+                            if (mGoogleApiClient.isConnected()) {
+                                applyConfig(config);
+                            }
+                        }
+                    });
         }
 
         //TODO: Implementação da DataApi (Logo acima)
@@ -625,10 +1669,7 @@ public class WatchFaceService extends CanvasWatchFaceService {
                     // DataItem changed
                     DataItem item = event.getDataItem();
                     if (item.getUri().getPath().compareTo("/batteryPercentage") == 0) {
-                        DataMap dataMap = DataMapItem.fromDataItem(item).getDataMap();
-
-                        mBatteryDevicePercentage = dataMap.getFloat(BATTERY_KEY);
-                        mBatteryDeviceReceived = true;
+                        applyConfig(DataMapItem.fromDataItem(item).getDataMap());
                     }
                 } else if (event.getType() == DataEvent.TYPE_DELETED) {
                     // DataItem deleted
@@ -636,6 +1677,75 @@ public class WatchFaceService extends CanvasWatchFaceService {
             }
         }
 
+        /**
+         * Applies the keys present in {@code config}, the {@link WatchFaceUtil#PATH_WITH_FEATURE}
+         * data item, whether it just changed or was fetched on connecting.
+         */
+        private void applyConfig(DataMap config) {
+            if (config.containsKey(BATTERY_KEY)) {
+                float batteryDevicePercentage = config.getFloat(BATTERY_KEY);
+                if (!mState.batteryDeviceReceived
+                        || batteryDevicePercentage != mState.batteryDevicePercentage) {
+                    mState = mState.buildUpon()
+                            .setBatteryDevicePercentage(batteryDevicePercentage, true)
+                            .build();
+                    mDirty.mark(DirtyTracker.MINUTE_LAYER);
+                }
+            }
+            if (config.containsKey(WatchFaceUtil.KEY_FRAME_BUDGET_MS)) {
+                synchronized (mRenderLock) {
+                    int previousQuality = mGovernor.getQuality();
+                    mGovernor.setBudgetMs(config.getInt(WatchFaceUtil.KEY_FRAME_BUDGET_MS));
+                    if (mGovernor.getQuality() != previousQuality) {
+                        applyQuality();
+                    }
+                }
+                updateArcAnimation();
+                updateEnergyStrategy();
+            }
+            if (config.containsKey(WatchFaceUtil.KEY_SMOOTH_SECONDS)) {
+                boolean smoothSeconds = config.getBoolean(WatchFaceUtil.KEY_SMOOTH_SECONDS);
+                if (smoothSeconds != mState.smoothSeconds) {
+                    mState = mState.buildUpon().setSmoothSeconds(smoothSeconds).build();
+                    // A full frame draws or erases the whole arc.
+                    mDirty.mark(DirtyTracker.MINUTE_LAYER);
+                    updateArcAnimation();
+                    updateEnergyStrategy();
+                }
+            }
+            if (config.containsKey(WatchFaceUtil.KEY_IDLE_TIMEOUT_SECONDS)) {
+                long idleTimeoutMs = TimeUnit.SECONDS.toMillis(
+                        config.getInt(WatchFaceUtil.KEY_IDLE_TIMEOUT_SECONDS));
+                if (idleTimeoutMs != mIdleTimeoutMs) {
+                    mIdleTimeoutMs = idleTimeoutMs;
+                    // Start counting from now, or leave idle mode if it was turned off.
+                    noteInteraction();
+                    updateTimer();
+                }
+            }
+            if (config.containsKey(WatchFaceUtil.KEY_GLYPH_ATLAS)) {
+                boolean useAtlas = config.getBoolean(WatchFaceUtil.KEY_GLYPH_ATLAS);
+                if (useAtlas != mState.glyphAtlas) {
+                    // The next frame switches the text canvas over, see applyDirty.
+                    mState = mState.buildUpon().setGlyphAtlas(useAtlas).build();
+                    updateEnergyStrategy();
+                }
+            }
+            if (config.containsKey(WatchFaceUtil.KEY_AMBIENT_LIT_LIMIT_PERCENT)) {
+                mLitMeter.setAmbientLimitPercent(
+                        config.getInt(WatchFaceUtil.KEY_AMBIENT_LIT_LIMIT_PERCENT));
+            }
+            if (config.containsKey(WatchFaceUtil.KEY_STEP_COUNTER_SENSOR)) {
+                setStepCounterSensorEnabled(
+                        config.getBoolean(WatchFaceUtil.KEY_STEP_COUNTER_SENSOR));
+            }
+            if (config.containsKey(WatchFaceUtil.KEY_RENDER_THREAD)) {
+                setRenderThreadEnabled(
+                        config.getBoolean(WatchFaceUtil.KEY_RENDER_THREAD));
+                updateEnergyStrategy();
+            }
+        }
+
         /*
          * Subscribes to step count (for phones that don't have Google Fit app).
          */
@@ -657,38 +1767,195 @@ public class WatchFaceService extends CanvasWatchFaceService {
                     });
         }
 
+        @Override
+        public void onPeekCardPositionUpdate(Rect rect) {
+            super.onPeekCardPositionUpdate(rect);
+            // The secondary lines are reflowed into the space the card leaves.
+            synchronized (mRenderLock) {
+                mLayout.setPeekCardTop(rect.isEmpty() ? FaceLayout.NO_PEEK_CARD : rect.top);
+                mLayout.compute();
+            }
+            mDirty.mark(DirtyTracker.DAY_LAYER);
+        }
+
         @Override
         public void onSurfaceChanged(
                 SurfaceHolder holder, int format, int width, int height) {
-            if (mBackgroundScaledBitmap == null
+            // Only a cached background is read here, outside the lock so that a frame in progress
+            // is not held up by it. A cache miss is decoded in the background, and the face is
+            // drawn on a flat fill until then.
+            boolean newSize = mBackgroundScaledBitmap == null
                     || mBackgroundScaledBitmap.getWidth() != width
-                    || mBackgroundScaledBitmap.getHeight() != height) {
-                mBackgroundScaledBitmap = Bitmap.createScaledBitmap(mBackgroundBitmap,
-                        width, height, true /* filter */);
+                    || mBackgroundScaledBitmap.getHeight() != height;
+            Bitmap background = null;
+            if (newSize) {
+                background = mBackgroundLoader.loadCached(width, height);
+                if (background == null) {
+                    mBackgroundLoader.loadAsync(width, height, this);
+                } else {
+                    mBackgroundLoader.cancel();
+                }
+            }
+            synchronized (mRenderLock) {
+                if (newSize) {
+                    setBackgroundLocked(background);
+                }
+                mSecondsArc.setSurfaceSize(width, height);
+                mLayout.setSurfaceSize(width, height);
+                mLayout.compute();
+                invalidateLayers();
             }
             super.onSurfaceChanged(holder, format, width, height);
+            if (mRenderThread != null && !isInAmbientMode()) {
+                mRenderThread.requestFrame(RenderThread.FRAME_FULL);
+            }
         }
 
+        @Override // BackgroundLoader.Listener
+        public void onBackgroundLoaded(Bitmap bitmap) {
+            synchronized (mRenderLock) {
+                setBackgroundLocked(bitmap);
+            }
+            mDirty.mark(DirtyTracker.DAY_LAYER);
+            if (!isInAmbientMode()) {
+                requestFullFrame();
+            }
+        }
+
+        private void setBackgroundLocked(Bitmap bitmap) {
+            if (mBackgroundScaledBitmap != null) {
+                mBackgroundScaledBitmap.recycle();
+            }
+            mBackgroundScaledBitmap = bitmap;
+        }
 
         @Override
-        public void onResult(DailyTotalResult dailyTotalResult) {
-            if (Log.isLoggable(TAG, Log.DEBUG)) {
-                Log.d(TAG, "mGoogleApiAndFitCallbacks.onResult(): " + dailyTotalResult);
+        public void onSurfaceDestroyed(SurfaceHolder holder) {
+            // Returns once the render thread is done with the surface; later frames find no
+            // valid surface to lock.
+            synchronized (mRenderLock) {
+                super.onSurfaceDestroyed(holder);
             }
+        }
 
-            mStepsRequested = false;
 
-            if (dailyTotalResult.getStatus().isSuccess()) {
+        /** Refreshes the step total unless {@link #mStepPolicy} holds it back. */
+        private void refreshSteps(long nowMs) {
+            if (mStepPolicy.shouldRefresh(nowMs)) {
+                mStepPolicy.recordRefresh(nowMs, mStepSource.refresh());
+                // Stale distance and calories ride along with a Fit steps cycle; without one,
+                // as with the step counter, they get a cycle of their own.
+                mFitnessFetcher.fetch(nowMs, 0);
+            }
+        }
 
-                List<DataPoint> points = dailyTotalResult.getTotal().getDataPoints();;
+        @Override
+        public void onTotalsFetched(FitnessTotals totals, int fetchedMetrics) {
+            FaceState before = mState;
+            mState = mState.buildUpon().setFitness(totals).build();
+            if ((fetchedMetrics & FitnessTotals.bit(FitnessTotals.METRIC_STEPS)) != 0) {
+                mStepSource.onFitSteps(totals.steps);
+            }
+            // One repaint for the whole cycle, and none if nothing shown changed. Ambient frames
+            // do not show the lines; the layer is only marked for the next interactive frame.
+            if (mState.stepsTotal != before.stepsTotal
+                    || totals.distanceMeters != before.fitness.distanceMeters
+                    || totals.calories != before.fitness.calories
+                    || totals.has(FitnessTotals.METRIC_DISTANCE)
+                            != before.fitness.has(FitnessTotals.METRIC_DISTANCE)
+                    || totals.has(FitnessTotals.METRIC_CALORIES)
+                            != before.fitness.has(FitnessTotals.METRIC_CALORIES)) {
+                mDirty.mark(DirtyTracker.MINUTE_LAYER);
+                if (!isInAmbientMode()) {
+                    requestFullFrame();
+                }
+            }
+        }
+
+        private long nextStepsRefreshMs(long nowMs) {
+            mScheduleDecomposer.decompose(nowMs, mStepPolicyTime);
+            return TickScheduler.nextBoundary(nowMs,
+                    mStepPolicy.getIntervalMs(mStepPolicyTime.hourOfDay));
+        }
+
+        /**
+         * Adds what the step total grew by to the current minute of the history, and hands the
+         * change to the sparkline on the thread that draws it.
+         */
+        private void recordStepHistory(int stepsToday) {
+            if (mStepHistory == null) {
+                return;
+            }
+            TimeFields time = mStepHistoryTime;
+            mScheduleDecomposer.decompose(System.currentTimeMillis(), time);
+            final long dayKey = time.dayKey;
+            final int minuteOfDay = time.hourOfDay * 60 + time.minute;
+            final int added = mStepHistory.record(stepsToday, dayKey, minuteOfDay);
+            if (dayKey != mSparklineDayKey) {
+                mSparklineDayKey = dayKey;
+                // Read here, where the history is written.
+                final int[] bars = SparklineLayer.readBars(mStepHistory, dayKey);
+                runOnRenderer(new Runnable() {
+                    @Override
+                    public void run() {
+                        synchronized (mRenderLock) {
+                            mSparkline.setDay(dayKey, bars);
+                        }
+                        mDirty.mark(DirtyTracker.MINUTE_LAYER);
+                    }
+                });
+            } else if (added > 0) {
+                runOnRenderer(new Runnable() {
+                    @Override
+                    public void run() {
+                        synchronized (mRenderLock) {
+                            mSparkline.addSteps(minuteOfDay, added);
+                        }
+                        mDirty.mark(DirtyTracker.MINUTE_LAYER);
+                    }
+                });
+            }
+        }
+
+        @Override
+        public void onStepsChanged(int stepsToday) {
+            mStepPolicy.recordSteps(stepsToday);
+            recordStepHistory(stepsToday);
+            if (stepsToday != mState.stepsTotal) {
+                mState = mState.buildUpon().setStepsTotal(stepsToday).build();
+                mDirty.mark(DirtyTracker.MINUTE_LAYER);
+                mStepSnapshot.update(stepsToday, System.currentTimeMillis());
+            }
+        }
 
-                if (!points.isEmpty()) {
-                    mStepsTotal = points.get(0).getValue(Field.FIELD_STEPS).asInt();
-                    Log.d(TAG, "steps updated: " + mStepsTotal);
+        /**
+         * Switches to the hardware step counter, if the device has one, or back to Google Fit.
+         */
+        private void setStepCounterSensorEnabled(boolean enabled) {
+            if (enabled == (mStepSource instanceof SensorStepSource)) {
+                return;
+            }
+            StepSource source;
+            if (enabled) {
+                SensorStepSource sensorSource = new SensorStepSource(
+                        new SensorStepSource.HardwareCounter(WatchFaceService.this, mMainHandler),
+                        new SensorStepSource.FetcherFitReader(mFitnessFetcher),
+                        SensorStepSource.getPreferences(WatchFaceService.this),
+                        this);
+                if (!sensorSource.isAvailable()) {
+                    Log.w(TAG, "No step counter sensor, staying with Google Fit");
+                    return;
                 }
+                source = sensorSource;
             } else {
-                Log.e(TAG, "onResult() failed! " + dailyTotalResult.getStatus().getStatusMessage());
+                source = new FitStepSource(mFitnessFetcher, this);
+            }
+            mStepSource.stop();
+            mStepSource = source;
+            if (isVisible()) {
+                mStepSource.start();
             }
+            refreshSteps(System.currentTimeMillis());
         }
     }
 }
@@ -57,11 +57,72 @@ public final class WatchFaceUtil {
      */
     public static final String KEY_SECONDS_COLOR = "SECONDS_COLOR";
 
+    /**
+     * The {@link DataMap} key for {@link WatchFaceService} time line rendering. When {@code true}
+     * the digits are blitted from pre-rendered glyph atlases, otherwise they are drawn as text.
+     */
+    public static final String KEY_GLYPH_ATLAS = "GLYPH_ATLAS";
+
+    /**
+     * The {@link DataMap} key for {@link WatchFaceService} frame budget, in milliseconds.
+     * Interactive frames that keep going over it make the face lower its rendering quality; 0
+     * turns this off.
+     */
+    public static final String KEY_FRAME_BUDGET_MS = "FRAME_BUDGET_MS";
+
+    /**
+     * The {@link DataMap} key for {@link WatchFaceService} smooth seconds. When {@code true} a
+     * progress arc around the bezel sweeps with the seconds, animated while interactive.
+     */
+    public static final String KEY_SMOOTH_SECONDS = "SMOOTH_SECONDS";
+
+    /**
+     * The {@link DataMap} key for {@link WatchFaceService} idle timeout, in seconds. After that
+     * long without interaction the interactive face hides the seconds and only updates once a
+     * minute, until it is tapped or shown again; 0 turns this off.
+     */
+    public static final String KEY_IDLE_TIMEOUT_SECONDS = "IDLE_TIMEOUT_SECONDS";
+
+    /**
+     * The {@link DataMap} key for {@link WatchFaceService} render thread mode. When {@code true}
+     * interactive frames are drawn on a dedicated thread instead of the main looper, so data
+     * callbacks cannot delay them.
+     */
+    public static final String KEY_RENDER_THREAD = "RENDER_THREAD";
+
+    /**
+     * The {@link DataMap} key for {@link WatchFaceService} ambient lit pixel limit, in percent of
+     * the screen. Ambient frames lighting up more than that are logged as a warning and flagged
+     * in the lit pixel report.
+     */
+    public static final String KEY_AMBIENT_LIT_LIMIT_PERCENT = "AMBIENT_LIT_LIMIT_PERCENT";
+
+    /**
+     * The {@link DataMap} key for {@link WatchFaceService} step source. When {@code true} steps
+     * are counted with the hardware step counter, reconciled with Google Fit now and then,
+     * instead of querying Google Fit every minute. Ignored on devices without a step counter.
+     */
+    public static final String KEY_STEP_COUNTER_SENSOR = "STEP_COUNTER_SENSOR";
+
     /**
      * The path for the {@link DataItem} containing {@link WatchFaceService} configuration.
      */
     public static final String PATH_WITH_FEATURE = "/batteryPercentage";
 
+    /**
+     * The path for the {@link DataItem} in which {@link WatchFaceService} reports how much of
+     * the screen its frames light up, for the companion app.
+     */
+    public static final String PATH_LIT_PIXELS = "/litPixels";
+
+    /** Lit pixel report: share of lit pixels and average luminance per mode, 0 to 1 floats. */
+    public static final String KEY_LIT_INTERACTIVE_RATIO = "LIT_INTERACTIVE_RATIO";
+    public static final String KEY_LIT_INTERACTIVE_LUMINANCE = "LIT_INTERACTIVE_LUMINANCE";
+    public static final String KEY_LIT_AMBIENT_RATIO = "LIT_AMBIENT_RATIO";
+    public static final String KEY_LIT_AMBIENT_LUMINANCE = "LIT_AMBIENT_LUMINANCE";
+    /** Lit pixel report: whether the last ambient frame was over the limit, a boolean. */
+    public static final String KEY_LIT_AMBIENT_OVER_LIMIT = "LIT_AMBIENT_OVER_LIMIT";
+
     /**
      * Name of the default interactive mode background color and the ambient mode background color.
      */
@@ -179,6 +240,24 @@ public final class WatchFaceUtil {
                 });
     }
 
+    /**
+     * Overwrites the lit pixel report {@link DataItem} with {@code report}. Not urgent: the
+     * figures are statistics, and may wait for the next batched sync.
+     */
+    public static void putLitPixelsDataItem(GoogleApiClient googleApiClient, DataMap report) {
+        PutDataMapRequest putDataMapRequest = PutDataMapRequest.create(PATH_LIT_PIXELS);
+        putDataMapRequest.getDataMap().putAll(report);
+        Wearable.DataApi.putDataItem(googleApiClient, putDataMapRequest.asPutDataRequest())
+                .setResultCallback(new ResultCallback<DataApi.DataItemResult>() {
+                    @Override
+                    public void onResult(DataApi.DataItemResult dataItemResult) {
+                        if (Log.isLoggable(TAG, Log.DEBUG)) {
+                            Log.d(TAG, "putDataItem result status: " + dataItemResult.getStatus());
+                        }
+                    }
+                });
+    }
+
     private static class DataItemResultCallback implements ResultCallback<DataApi.DataItemResult> {
 
         private final FetchConfigDataMapCallback mCallback;
@@ -0,0 +1,87 @@
+/*
+ * Copyright (C) 2014 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.example.android.wearable.watchface;
+
+
+import static org.junit.Assert.assertEquals;
+
+import org.junit.Test;
+
+public class CharFormatterTest {
+
+    @Test
+    public void formatsPlainIntegers() {
+        CharFormatter.Template template = new CharFormatter.Template("%1$d Passos", "", '.');
+        assertEquals("0 Passos", format(template, 0));
+        assertEquals("12345 Passos", format(template, 12345));
+        assertEquals("-7 Passos", format(template, -7));
+    }
+
+    @Test
+    public void groupsThousandsWithTheGivenSeparator() {
+        CharFormatter.Template template = new CharFormatter.Template("%1$,.0f m", "", '.');
+        assertEquals("999 m", format(template, 999));
+        assertEquals("1.000 m", format(template, 1000));
+        assertEquals("12.345 m", format(template, 12345));
+        assertEquals("1.234.567 m", format(template, 1234567));
+        assertEquals("-2.147.483.648 m", format(template, Integer.MIN_VALUE));
+    }
+
+    @Test
+    public void roundsHalfUp() {
+        CharFormatter.Template template = new CharFormatter.Template("%1$,.0f kcal", "", ',');
+        assertEquals("1,500 kcal", formatRounded(template, 1499.5f));
+        assertEquals("2 kcal", formatRounded(template, 2.4f));
+    }
+
+    @Test
+    public void keepsPrefixAndExtraSuffix() {
+        CharFormatter.Template template =
+                new CharFormatter.Template("Bateria %1$,.0f", "% (Relógio)", '.');
+        assertEquals("Bateria 87% (Relógio)", formatRounded(template, 87f));
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void rejectsWidth() {
+        new CharFormatter.Template("%5d", "", '.');
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void rejectsOtherFlags() {
+        new CharFormatter.Template("%1$+d", "", '.');
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void rejectsNonZeroPrecision() {
+        new CharFormatter.Template("%1$.2f km", "", '.');
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void rejectsMissingPlaceholder() {
+        new CharFormatter.Template("Passos", "", '.');
+    }
+
+    private static String format(CharFormatter.Template template, int value) {
+        char[] buffer = new char[template.maxLength()];
+        return new String(buffer, 0, template.formatInt(buffer, value));
+    }
+
+    private static String formatRounded(CharFormatter.Template template, float value) {
+        char[] buffer = new char[template.maxLength()];
+        return new String(buffer, 0, template.formatRounded(buffer, value));
+    }
+}
@@ -0,0 +1,148 @@
+/*
+ * Copyright (C) 2014 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.example.android.wearable.watchface;
+
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Test;
+
+import java.util.TimeZone;
+import java.util.concurrent.TimeUnit;
+
+public class DailyStepBaselineTest {
+
+    private static final long DAY = 17000;
+    private static final long BOOT_MS = 1460000000000L;
+
+    private final DailyStepBaseline mBaseline = new DailyStepBaseline();
+
+    @Test
+    public void countsFromTheFirstReading() {
+        assertTrue(mBaseline.onCounter(1000, DAY, BOOT_MS));
+        assertEquals(0, mBaseline.getSteps(DAY));
+
+        assertTrue(mBaseline.onCounter(1050, DAY, BOOT_MS));
+        assertEquals(50, mBaseline.getSteps(DAY));
+    }
+
+    @Test
+    public void reconcileOnlyRaisesTheTotal() {
+        mBaseline.onCounter(1000, DAY, BOOT_MS);
+        mBaseline.onCounter(1050, DAY, BOOT_MS);
+
+        assertTrue(mBaseline.reconcile(300, DAY));
+        assertEquals(300, mBaseline.getSteps(DAY));
+        assertFalse(mBaseline.reconcile(200, DAY));
+        assertEquals(300, mBaseline.getSteps(DAY));
+
+        mBaseline.onCounter(1070, DAY, BOOT_MS);
+        assertEquals(320, mBaseline.getSteps(DAY));
+    }
+
+    @Test
+    public void reconcileBeforeTheFirstReadingIsKept() {
+        assertTrue(mBaseline.reconcile(500, DAY));
+        mBaseline.onCounter(1000, DAY, BOOT_MS);
+        assertEquals(500, mBaseline.getSteps(DAY));
+
+        mBaseline.onCounter(1010, DAY, BOOT_MS);
+        assertEquals(510, mBaseline.getSteps(DAY));
+    }
+
+    @Test
+    public void rebootKeepsTheStepsOfThePreviousBoot() {
+        mBaseline.onCounter(1000, DAY, BOOT_MS);
+        mBaseline.onCounter(1100, DAY, BOOT_MS);
+
+        long rebootMs = BOOT_MS + TimeUnit.HOURS.toMillis(3);
+        mBaseline.onCounter(30, DAY, rebootMs);
+        assertEquals(130, mBaseline.getSteps(DAY));
+
+        mBaseline.onCounter(40, DAY, rebootMs);
+        assertEquals(140, mBaseline.getSteps(DAY));
+    }
+
+    @Test
+    public void wallClockChangeIsNotAReboot() {
+        mBaseline.onCounter(1000, DAY, BOOT_MS);
+        mBaseline.onCounter(1300, DAY, BOOT_MS);
+
+        // The boot time is derived from the wall clock, which moved by two minutes.
+        long movedBootMs = BOOT_MS + TimeUnit.MINUTES.toMillis(2);
+        mBaseline.onCounter(1300, DAY, movedBootMs);
+        assertEquals(300, mBaseline.getSteps(DAY));
+
+        mBaseline.onCounter(1320, DAY, movedBootMs);
+        assertEquals(320, mBaseline.getSteps(DAY));
+    }
+
+    @Test
+    public void smallBootTimeJitterIsIgnored() {
+        mBaseline.onCounter(1000, DAY, BOOT_MS);
+        mBaseline.onCounter(1100, DAY, BOOT_MS + DailyStepBaseline.BOOT_TOLERANCE_MS / 2);
+        assertEquals(100, mBaseline.getSteps(DAY));
+    }
+
+    @Test
+    public void newDayStartsFromTheLastReading() {
+        mBaseline.onCounter(1000, DAY, BOOT_MS);
+        mBaseline.onCounter(1100, DAY, BOOT_MS);
+
+        assertTrue(mBaseline.onCounter(1150, DAY + 1, BOOT_MS));
+        assertEquals(50, mBaseline.getSteps(DAY + 1));
+        assertEquals(0, mBaseline.getSteps(DAY));
+    }
+
+    @Test
+    public void lateReadingOfThePreviousDayIsNotCountedToday() {
+        mBaseline.onCounter(1000, DAY, BOOT_MS);
+        mBaseline.onCounter(1100, DAY, BOOT_MS);
+        mBaseline.onCounter(1150, DAY + 1, BOOT_MS);
+
+        assertFalse(mBaseline.onCounter(1170, DAY, BOOT_MS));
+        assertEquals(50, mBaseline.getSteps(DAY + 1));
+
+        mBaseline.onCounter(1180, DAY + 1, BOOT_MS);
+        assertEquals(60, mBaseline.getSteps(DAY + 1));
+    }
+
+    @Test
+    public void restoreResumesTheTotal() {
+        mBaseline.onCounter(1000, DAY, BOOT_MS);
+        mBaseline.reconcile(400, DAY);
+        mBaseline.onCounter(1100, DAY, BOOT_MS);
+
+        DailyStepBaseline restored = new DailyStepBaseline();
+        restored.restore(mBaseline.getDayKey(), mBaseline.getBootMs(),
+                mBaseline.getCounterBase(), mBaseline.getOffset(), mBaseline.getLastCounter());
+        assertEquals(500, restored.getSteps(DAY));
+
+        restored.onCounter(1110, DAY, BOOT_MS);
+        assertEquals(510, restored.getSteps(DAY));
+    }
+
+    @Test
+    public void dayKeyFollowsTheLocalDate() {
+        TimeZone plusTwo = TimeZone.getTimeZone("GMT+02:00");
+        long lateEveningUtc = TimeUnit.DAYS.toMillis(DAY) + TimeUnit.HOURS.toMillis(22) + 1;
+        assertEquals(DAY, DailyStepBaseline.dayKey(lateEveningUtc, TimeZone.getTimeZone("UTC")));
+        assertEquals(DAY + 1, DailyStepBaseline.dayKey(lateEveningUtc, plusTwo));
+    }
+}
@@ -0,0 +1,133 @@
+/*
+ * Copyright (C) 2014 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.example.android.wearable.watchface;
+
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Before;
+import org.junit.Test;
+
+public class FaceLayoutTest {
+
+    private static final float DELTA = 0.001f;
+
+    private final FaceLayout mLayout = new FaceLayout();
+
+    @Before
+    public void setUp() {
+        mLayout.setTimeLine(20, 100);
+        mLayout.setLines(20, 30);
+        mLayout.setLineMetrics(-20, 6);
+    }
+
+    @Test
+    public void unboundedSurfaceStacksAllLines() {
+        mLayout.compute();
+
+        assertEquals(FaceLayout.LINE_ACTIVITY, mLayout.getVisibleLineCount());
+        assertEquals(1, mLayout.getColumns());
+        assertEquals(30, mLayout.getLinePitch(), DELTA);
+        assertEquals(130, mLayout.getLineBaseline(FaceLayout.LINE_STEPS), DELTA);
+        assertEquals(310, mLayout.getLineBaseline(FaceLayout.LINE_ACTIVITY), DELTA);
+        assertEquals(20, mLayout.getLineX(FaceLayout.LINE_ACTIVITY), DELTA);
+    }
+
+    @Test
+    public void peekCardMovesLinesIntoTwoColumns() {
+        mLayout.setSurfaceSize(320, 320);
+        mLayout.setPeekCardTop(200);
+        mLayout.compute();
+
+        // 94 pixels of room: six lines fit in three rows of two, the seventh does not.
+        assertEquals(6, mLayout.getVisibleLineCount());
+        assertEquals(2, mLayout.getColumns());
+        assertTrue(mLayout.isLineVisible(FaceLayout.LINE_CALORIES));
+        assertFalse(mLayout.isLineVisible(FaceLayout.LINE_ACTIVITY));
+
+        assertEquals(20, mLayout.getLineX(FaceLayout.LINE_STEPS), DELTA);
+        assertEquals(170, mLayout.getLineX(FaceLayout.LINE_DATE), DELTA);
+        assertEquals(130, mLayout.getLineBaseline(FaceLayout.LINE_DATE), DELTA);
+        assertEquals(160, mLayout.getLineBaseline(FaceLayout.LINE_BATTERY), DELTA);
+        assertEquals(170, mLayout.getLineClipRight(FaceLayout.LINE_STEPS), DELTA);
+        assertEquals(110, mLayout.getLineClipTop(FaceLayout.LINE_STEPS), DELTA);
+        assertEquals(136, mLayout.getLineClipBottom(FaceLayout.LINE_STEPS), DELTA);
+    }
+
+    @Test
+    public void tightRoomShrinksThePitch() {
+        mLayout.setSurfaceSize(320, 320);
+        mLayout.setPeekCardTop(220);
+        mLayout.compute();
+
+        // 114 pixels of room: all lines fit in four rows of two, 28.5 pixels apart.
+        assertEquals(FaceLayout.LINE_ACTIVITY, mLayout.getVisibleLineCount());
+        assertEquals(2, mLayout.getColumns());
+        assertEquals(28.5f, mLayout.getLinePitch(), DELTA);
+    }
+
+    @Test
+    public void noRoomHidesAllLines() {
+        mLayout.setSurfaceSize(320, 320);
+        mLayout.setPeekCardTop(100);
+        mLayout.compute();
+
+        assertEquals(0, mLayout.getVisibleLineCount());
+        assertFalse(mLayout.isLineVisible(FaceLayout.LINE_STEPS));
+    }
+
+    @Test
+    public void linesWithoutContentTakeNoRoom() {
+        assertTrue(mLayout.setLineHasContent(FaceLayout.LINE_BATTERY_DEVICE, false));
+        assertTrue(mLayout.setLineHasContent(FaceLayout.LINE_DISTANCE, false));
+        assertFalse(mLayout.setLineHasContent(FaceLayout.LINE_DISTANCE, false));
+        mLayout.compute();
+
+        assertEquals(5, mLayout.getVisibleLineCount());
+        assertFalse(mLayout.isLineVisible(FaceLayout.LINE_BATTERY_DEVICE));
+        assertFalse(mLayout.isLineVisible(FaceLayout.LINE_DISTANCE));
+        assertEquals(190, mLayout.getLineBaseline(FaceLayout.LINE_BATTERY), DELTA);
+        assertEquals(220, mLayout.getLineBaseline(FaceLayout.LINE_CALORIES), DELTA);
+        assertEquals(250, mLayout.getLineBaseline(FaceLayout.LINE_ACTIVITY), DELTA);
+    }
+
+    @Test
+    public void fewerLinesFitNextToAPeekCard() {
+        mLayout.setSurfaceSize(320, 320);
+        mLayout.setPeekCardTop(200);
+        mLayout.setLineHasContent(FaceLayout.LINE_DISTANCE, false);
+        mLayout.setLineHasContent(FaceLayout.LINE_CALORIES, false);
+        mLayout.setLineHasContent(FaceLayout.LINE_ACTIVITY, false);
+        mLayout.compute();
+
+        // 94 pixels of room: the four lines with content fit in two rows of two.
+        assertEquals(4, mLayout.getVisibleLineCount());
+        assertEquals(2, mLayout.getColumns());
+        assertTrue(mLayout.isLineVisible(FaceLayout.LINE_BATTERY_DEVICE));
+        assertEquals(160, mLayout.getLineBaseline(FaceLayout.LINE_BATTERY_DEVICE), DELTA);
+        assertEquals(170, mLayout.getLineX(FaceLayout.LINE_BATTERY_DEVICE), DELTA);
+    }
+
+    @Test
+    public void computeIsCounted() {
+        mLayout.compute();
+        mLayout.compute();
+        assertEquals(2, mLayout.getComputeCount());
+    }
+}
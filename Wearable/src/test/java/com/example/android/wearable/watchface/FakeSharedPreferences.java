@@ -0,0 +1,164 @@
+/*
+ * Copyright (C) 2014 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.example.android.wearable.watchface;
+
+
+import android.content.SharedPreferences;
+
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+
+/** An in-memory {@link SharedPreferences} whose edits apply immediately. */
+final class FakeSharedPreferences implements SharedPreferences {
+
+    private final Map<String, Object> mValues = new HashMap<>();
+    private int mApplyCount;
+
+    /** Returns how many edits were applied or committed. */
+    int getApplyCount() {
+        return mApplyCount;
+    }
+
+    @Override
+    public Map<String, ?> getAll() {
+        return new HashMap<>(mValues);
+    }
+
+    @Override
+    public String getString(String key, String defValue) {
+        return mValues.containsKey(key) ? (String) mValues.get(key) : defValue;
+    }
+
+    @Override
+    @SuppressWarnings("unchecked")
+    public Set<String> getStringSet(String key, Set<String> defValues) {
+        return mValues.containsKey(key) ? (Set<String>) mValues.get(key) : defValues;
+    }
+
+    @Override
+    public int getInt(String key, int defValue) {
+        return mValues.containsKey(key) ? (Integer) mValues.get(key) : defValue;
+    }
+
+    @Override
+    public long getLong(String key, long defValue) {
+        return mValues.containsKey(key) ? (Long) mValues.get(key) : defValue;
+    }
+
+    @Override
+    public float getFloat(String key, float defValue) {
+        return mValues.containsKey(key) ? (Float) mValues.get(key) : defValue;
+    }
+
+    @Override
+    public boolean getBoolean(String key, boolean defValue) {
+        return mValues.containsKey(key) ? (Boolean) mValues.get(key) : defValue;
+    }
+
+    @Override
+    public boolean contains(String key) {
+        return mValues.containsKey(key);
+    }
+
+    @Override
+    public Editor edit() {
+        return new FakeEditor();
+    }
+
+    @Override
+    public void registerOnSharedPreferenceChangeListener(
+            OnSharedPreferenceChangeListener listener) {
+    }
+
+    @Override
+    public void unregisterOnSharedPreferenceChangeListener(
+            OnSharedPreferenceChangeListener listener) {
+    }
+
+    private final class FakeEditor implements Editor {
+
+        private final Map<String, Object> mPending = new HashMap<>();
+        private final Set<String> mRemoved = new HashSet<>();
+        private boolean mClear;
+
+        @Override
+        public Editor putString(String key, String value) {
+            mPending.put(key, value);
+            return this;
+        }
+
+        @Override
+        public Editor putStringSet(String key, Set<String> values) {
+            mPending.put(key, values == null ? null : new HashSet<>(values));
+            return this;
+        }
+
+        @Override
+        public Editor putInt(String key, int value) {
+            mPending.put(key, value);
+            return this;
+        }
+
+        @Override
+        public Editor putLong(String key, long value) {
+            mPending.put(key, value);
+            return this;
+        }
+
+        @Override
+        public Editor putFloat(String key, float value) {
+            mPending.put(key, value);
+            return this;
+        }
+
+        @Override
+        public Editor putBoolean(String key, boolean value) {
+            mPending.put(key, value);
+            return this;
+        }
+
+        @Override
+        public Editor remove(String key) {
+            mRemoved.add(key);
+            return this;
+        }
+
+        @Override
+        public Editor clear() {
+            mClear = true;
+            return this;
+        }
+
+        @Override
+        public boolean commit() {
+            apply();
+            return true;
+        }
+
+        @Override
+        public void apply() {
+            mApplyCount++;
+            if (mClear) {
+                mValues.clear();
+            }
+            mValues.keySet().removeAll(mRemoved);
+            mValues.putAll(mPending);
+        }
+    }
+}
@@ -0,0 +1,145 @@
+/*
+ * Copyright (C) 2014 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.example.android.wearable.watchface;
+
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Test;
+
+import java.lang.management.ManagementFactory;
+import java.util.TimeZone;
+
+/**
+ * Drives the per-frame text work of the interactive face, the way the engine does it, through a
+ * counting {@link TextCanvas} over many simulated second ticks, and checks that none of it
+ * allocates once warmed up.
+ */
+public class FrameAllocationTest {
+
+    private static final long NOW_MS = 1460000000000L;
+    private static final long SECOND_MS = 1000L;
+    private static final int WARM_UP_TICKS = 20000;
+    /** Three hours of ticks, all within the offset the decomposer caches after warming up. */
+    private static final int MEASURED_TICKS = 3 * 60 * 60;
+
+    @Test
+    public void steadyStateFramesDoNotAllocate() {
+        com.sun.management.ThreadMXBean threads =
+                (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+        long threadId = Thread.currentThread().getId();
+        FaceFrames frames = new FaceFrames(TimeZone.getTimeZone("Europe/Lisbon"));
+
+        // Warm up so that class loading and compilation are not attributed to the run below,
+        // then measure the cost of reading the counter itself.
+        frames.run(NOW_MS - WARM_UP_TICKS * SECOND_MS, WARM_UP_TICKS);
+        long overhead = threads.getThreadAllocatedBytes(threadId);
+        overhead = threads.getThreadAllocatedBytes(threadId) - overhead;
+
+        long before = threads.getThreadAllocatedBytes(threadId);
+        frames.run(NOW_MS, MEASURED_TICKS);
+        long allocated = threads.getThreadAllocatedBytes(threadId) - before - overhead;
+
+        assertEquals(MEASURED_TICKS / 60, frames.mMinuteFrames, 1);
+        assertTrue(frames.mCanvas.mDrawCount > MEASURED_TICKS);
+        assertEquals("allocated bytes (checksum " + frames.mCanvas.mChecksum + ")", 0, allocated);
+    }
+
+    /**
+     * The text part of the engine's frames: the time line and the secondary lines are drawn when
+     * the minute changes, the seconds on every tick.
+     */
+    private static final class FaceFrames {
+
+        final CountingTextCanvas mCanvas = new CountingTextCanvas();
+
+        private final TimeDecomposer mDecomposer;
+        private final TimeFields mTime = new TimeFields();
+        private final TimeLine mTimeLine = new TimeLine();
+        private final CharFormatter.Template mSteps =
+                new CharFormatter.Template("%1$d Passos", "", '.');
+        private final CharFormatter.Template mBattery =
+                new CharFormatter.Template("Bateria %1$,.0f", "% (Relógio)", '.');
+        private final CharFormatter.Template mDistance =
+                new CharFormatter.Template("%1$,.0f m", "", '.');
+        private final CharFormatter.Template mCalories =
+                new CharFormatter.Template("%1$,.0f kcal", "", '.');
+        private final char[] mLineChars = new char[Math.max(
+                Math.max(mSteps.maxLength(), mBattery.maxLength()),
+                Math.max(mDistance.maxLength(), mCalories.maxLength()))];
+        private long mMinuteKey = -1;
+        private float mSecondsX;
+        int mMinuteFrames;
+
+        FaceFrames(TimeZone timeZone) {
+            mDecomposer = new TimeDecomposer(timeZone);
+            mTimeLine.setPosition(20f, 100f);
+        }
+
+        void run(long startMs, int ticks) {
+            mMinuteFrames = 0;
+            for (int tick = 0; tick < ticks; tick++) {
+                long now = startMs + tick * SECOND_MS;
+                mDecomposer.decompose(now, mTime);
+                long minuteKey = mTime.getMinuteKey(false /* is24Hour */);
+                if (minuteKey != mMinuteKey) {
+                    mMinuteKey = minuteKey;
+                    mMinuteFrames++;
+                    drawMinuteItems(tick);
+                }
+                mTimeLine.drawSeconds(mCanvas, mTime, mSecondsX);
+            }
+        }
+
+        private void drawMinuteItems(int tick) {
+            mSecondsX = mTimeLine.drawHoursAndMinutes(mCanvas, mTime, false /* is24Hour */);
+            drawLine(mSteps.formatInt(mLineChars, tick * 3));
+            drawLine(mBattery.formatRounded(mLineChars, 100f - tick % 100));
+            drawLine(mDistance.formatRounded(mLineChars, tick * 2.5f));
+            drawLine(mCalories.formatRounded(mLineChars, tick * 0.04f));
+        }
+
+        private void drawLine(int length) {
+            mCanvas.drawText(mLineChars, 0, length, 20f, 150f, TextCanvas.STYLE_MINUTE);
+        }
+    }
+
+    /** Folds what it is asked to draw into a checksum, with a fixed advance per char. */
+    private static final class CountingTextCanvas implements TextCanvas {
+
+        private static final float CHAR_ADVANCE = 24f;
+
+        int mChecksum;
+        int mDrawCount;
+
+        @Override
+        public void drawText(char[] text, int start, int count, float x, float y, int style) {
+            int hash = (int) x * 31 + (int) y + style;
+            for (int i = start; i < start + count; i++) {
+                hash = hash * 31 + text[i];
+            }
+            mChecksum += hash;
+            mDrawCount++;
+        }
+
+        @Override
+        public float measureText(char[] text, int start, int count, int style) {
+            return count * CHAR_ADVANCE;
+        }
+    }
+}
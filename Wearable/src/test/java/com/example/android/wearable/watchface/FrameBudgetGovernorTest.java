@@ -0,0 +1,118 @@
+/*
+ * Copyright (C) 2014 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.example.android.wearable.watchface;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Test;
+
+import java.util.concurrent.TimeUnit;
+
+public class FrameBudgetGovernorTest {
+
+    private static final long NOW_MS = 1460000000000L;
+    private static final long SECOND_MS = TimeUnit.SECONDS.toMillis(1);
+    private static final long SLOW_NS = TimeUnit.MILLISECONDS.toNanos(20);
+    private static final long CHEAP_NS = TimeUnit.MILLISECONDS.toNanos(1);
+
+    private final FrameBudgetGovernor mGovernor = new FrameBudgetGovernor();
+
+    @Test
+    public void slowFullFramesAmongCheapOnesDowngrade() {
+        long now = NOW_MS;
+        for (int i = 0; i < 2; i++) {
+            assertFalse(mGovernor.recordFrame(FrameBudgetGovernor.FRAME_FULL, SLOW_NS, now));
+            assertFalse(mGovernor.recordFrame(FrameBudgetGovernor.FRAME_FULL, CHEAP_NS, now));
+        }
+        assertTrue(mGovernor.recordFrame(FrameBudgetGovernor.FRAME_FULL, SLOW_NS, now));
+        assertEquals(FrameBudgetGovernor.QUALITY_NO_ANTI_ALIAS, mGovernor.getQuality());
+    }
+
+    @Test
+    public void cheapPartialFramesDoNotDiluteTheFullFrames() {
+        long now = NOW_MS;
+        for (int i = 0; i < 3; i++) {
+            mGovernor.recordFrame(FrameBudgetGovernor.FRAME_FULL, SLOW_NS, now);
+            for (int second = 0; second < 60; second++) {
+                now += SECOND_MS;
+                mGovernor.recordFrame(FrameBudgetGovernor.FRAME_PARTIAL, CHEAP_NS, now);
+            }
+        }
+        assertEquals(FrameBudgetGovernor.QUALITY_NO_ANTI_ALIAS, mGovernor.getQuality());
+    }
+
+    @Test
+    public void slowPartialFramesDowngrade() {
+        long now = NOW_MS;
+        for (int i = 0; i < 3; i++) {
+            now += SECOND_MS;
+            mGovernor.recordFrame(FrameBudgetGovernor.FRAME_PARTIAL, SLOW_NS, now);
+        }
+        assertEquals(FrameBudgetGovernor.QUALITY_NO_ANTI_ALIAS, mGovernor.getQuality());
+    }
+
+    @Test
+    public void upgradesAfterTwoQuietMinutesAtMinuteCadence() {
+        long now = NOW_MS;
+        for (int i = 0; i < 3; i++) {
+            mGovernor.recordFrame(FrameBudgetGovernor.FRAME_FULL, SLOW_NS, now);
+        }
+        assertEquals(FrameBudgetGovernor.QUALITY_NO_ANTI_ALIAS, mGovernor.getQuality());
+
+        // One full frame a minute, partial frames in between.
+        for (int second = 1; second < 120; second++) {
+            now += SECOND_MS;
+            int kind = second % 60 == 0
+                    ? FrameBudgetGovernor.FRAME_FULL : FrameBudgetGovernor.FRAME_PARTIAL;
+            assertFalse(mGovernor.recordFrame(kind, CHEAP_NS, now));
+        }
+        now += SECOND_MS;
+        assertTrue(mGovernor.recordFrame(FrameBudgetGovernor.FRAME_FULL, CHEAP_NS, now));
+        assertEquals(FrameBudgetGovernor.QUALITY_FULL, mGovernor.getQuality());
+    }
+
+    @Test
+    public void frameOverHalfTheBudgetRestartsTheQuietTime() {
+        for (int i = 0; i < 3; i++) {
+            mGovernor.recordFrame(FrameBudgetGovernor.FRAME_FULL, SLOW_NS, NOW_MS);
+        }
+        long halfBudgetNs = TimeUnit.MILLISECONDS.toNanos(8);
+        long quietSinceMs = NOW_MS + TimeUnit.MINUTES.toMillis(1);
+        mGovernor.recordFrame(FrameBudgetGovernor.FRAME_PARTIAL, halfBudgetNs, quietSinceMs);
+
+        long quietMs = TimeUnit.MINUTES.toMillis(2);
+        assertFalse(mGovernor.recordFrame(FrameBudgetGovernor.FRAME_FULL, CHEAP_NS,
+                quietSinceMs + quietMs / 2));
+        assertFalse(mGovernor.recordFrame(FrameBudgetGovernor.FRAME_FULL, CHEAP_NS,
+                quietSinceMs + quietMs - SECOND_MS));
+        assertEquals(FrameBudgetGovernor.QUALITY_NO_ANTI_ALIAS, mGovernor.getQuality());
+        assertTrue(mGovernor.recordFrame(FrameBudgetGovernor.FRAME_PARTIAL, CHEAP_NS,
+                quietSinceMs + quietMs));
+    }
+
+    @Test
+    public void zeroBudgetRestoresFullQuality() {
+        for (int i = 0; i < 3; i++) {
+            mGovernor.recordFrame(FrameBudgetGovernor.FRAME_FULL, SLOW_NS, NOW_MS);
+        }
+        mGovernor.setBudgetMs(0);
+        assertEquals(FrameBudgetGovernor.QUALITY_FULL, mGovernor.getQuality());
+        assertFalse(mGovernor.recordFrame(FrameBudgetGovernor.FRAME_FULL, SLOW_NS, NOW_MS));
+    }
+}
@@ -0,0 +1,284 @@
+/*
+ * Copyright (C) 2014 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.example.android.wearable.watchface;
+
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+public class SensorStepSourceTest {
+
+    private final FakeCounter mCounter = new FakeCounter();
+    private final FakeFitReader mFitReader = new FakeFitReader();
+    private final FakeSharedPreferences mPrefs = new FakeSharedPreferences();
+    private final List<Integer> mReported = new ArrayList<>();
+    private final long mBootMs = System.currentTimeMillis() - TimeUnit.HOURS.toMillis(5);
+
+    private final StepSource.Listener mListener = new StepSource.Listener() {
+        @Override
+        public void onStepsChanged(int stepsToday) {
+            mReported.add(stepsToday);
+        }
+    };
+
+    private SensorStepSource newSource() {
+        return new SensorStepSource(mCounter, mFitReader, mPrefs, mListener);
+    }
+
+    @Test
+    public void startRegistersWithALongReportLatency() {
+        SensorStepSource source = newSource();
+        source.start();
+
+        assertTrue(mCounter.mRegistered);
+        assertEquals(SensorStepSource.MAX_REPORT_LATENCY_US, mCounter.mMaxReportLatencyUs);
+        assertEquals(0, lastReported());
+    }
+
+    @Test
+    public void readingsAreCountedFromTheFirstOne() {
+        SensorStepSource source = newSource();
+        source.start();
+
+        mCounter.deliver(5000, mBootMs);
+        mCounter.deliver(5040, mBootMs);
+        assertEquals(40, lastReported());
+    }
+
+    @Test
+    public void refreshFlushesTheFifo() {
+        SensorStepSource source = newSource();
+        source.start();
+
+        assertTrue(source.refresh());
+        assertEquals(1, mCounter.mFlushCount);
+    }
+
+    @Test
+    public void refreshWhileStoppedDoesNotFlush() {
+        SensorStepSource source = newSource();
+
+        source.refresh();
+        assertEquals(0, mCounter.mFlushCount);
+    }
+
+    @Test
+    public void fitStepsAreIgnoredUnlessReadAfterAFlush() {
+        SensorStepSource source = newSource();
+        source.start();
+        mCounter.deliver(5000, mBootMs);
+        mCounter.deliver(5040, mBootMs);
+        int reportCount = mReported.size();
+
+        source.onFitSteps(900);
+        assertEquals(reportCount, mReported.size());
+        assertEquals(40, lastReported());
+    }
+
+    @Test
+    public void fitIsReadOnlyOnceTheFlushCompleted() {
+        SensorStepSource source = newSource();
+        source.start();
+        mCounter.deliver(5000, mBootMs);
+        mCounter.deliver(5040, mBootMs);
+
+        source.refresh();
+        assertEquals(0, mFitReader.mReadCount);
+        mCounter.completeFlush();
+        assertEquals(1, mFitReader.mReadCount);
+    }
+
+    @Test
+    public void fitStepsReadAfterAFlushRaiseTheTotal() {
+        SensorStepSource source = newSource();
+        source.start();
+        mCounter.deliver(5000, mBootMs);
+        mCounter.deliver(5040, mBootMs);
+        source.refresh();
+        mCounter.completeFlush();
+
+        source.onFitSteps(900);
+        assertEquals(900, lastReported());
+
+        // Readings keep counting from the reconciled total, and a second Fit result without a
+        // read of its own is ignored.
+        mCounter.deliver(5050, mBootMs);
+        assertEquals(910, lastReported());
+        source.onFitSteps(2000);
+        assertEquals(910, lastReported());
+    }
+
+    @Test
+    public void lowerFitStepsDoNotLowerTheTotal() {
+        SensorStepSource source = newSource();
+        source.start();
+        mCounter.deliver(5000, mBootMs);
+        mCounter.deliver(5040, mBootMs);
+        source.refresh();
+        mCounter.completeFlush();
+        int reportCount = mReported.size();
+
+        source.onFitSteps(10);
+        assertEquals(reportCount, mReported.size());
+        assertEquals(40, lastReported());
+    }
+
+    @Test
+    public void reconcilesAtMostOncePerInterval() {
+        SensorStepSource source = newSource();
+        source.start();
+        source.refresh();
+        mCounter.completeFlush();
+        source.onFitSteps(100);
+
+        source.refresh();
+        mCounter.completeFlush();
+        assertEquals(2, mCounter.mFlushCount);
+        assertEquals(1, mFitReader.mReadCount);
+    }
+
+    @Test
+    public void refusedFitReadIsRetriedOnTheNextFlush() {
+        SensorStepSource source = newSource();
+        source.start();
+        mFitReader.mRefuse = true;
+        source.refresh();
+        mCounter.completeFlush();
+        source.onFitSteps(100);
+        assertEquals(0, lastReported());
+
+        mFitReader.mRefuse = false;
+        source.refresh();
+        mCounter.completeFlush();
+        source.onFitSteps(100);
+        assertEquals(100, lastReported());
+    }
+
+    @Test
+    public void flushCompletedAfterStopDoesNotReadFit() {
+        SensorStepSource source = newSource();
+        source.start();
+        source.refresh();
+        source.stop();
+
+        mCounter.completeFlush();
+        assertEquals(0, mFitReader.mReadCount);
+    }
+
+    @Test
+    public void flushWithoutARefreshDoesNotReadFit() {
+        SensorStepSource source = newSource();
+        source.start();
+
+        mCounter.completeFlush();
+        assertEquals(0, mFitReader.mReadCount);
+    }
+
+    @Test
+    public void stopUnregistersAndPersistsTheBaseline() {
+        SensorStepSource source = newSource();
+        source.start();
+        mCounter.deliver(5000, mBootMs);
+        mCounter.deliver(5040, mBootMs);
+        source.stop();
+        assertFalse(mCounter.mRegistered);
+
+        SensorStepSource restored = newSource();
+        restored.start();
+        assertEquals(40, lastReported());
+
+        mCounter.deliver(5045, mBootMs);
+        assertEquals(45, lastReported());
+    }
+
+    @Test
+    public void rebootKeepsTheStepsCountedBeforeIt() {
+        SensorStepSource source = newSource();
+        source.start();
+        mCounter.deliver(5000, mBootMs);
+        mCounter.deliver(5040, mBootMs);
+
+        mCounter.deliver(10, System.currentTimeMillis());
+        assertEquals(50, lastReported());
+    }
+
+    private int lastReported() {
+        return mReported.get(mReported.size() - 1);
+    }
+
+    /** A step counter driven by the test; flushes complete when the test says so. */
+    private static final class FakeCounter implements SensorStepSource.Counter {
+
+        Callback mCallback;
+        boolean mRegistered;
+        int mMaxReportLatencyUs;
+        int mFlushCount;
+
+        @Override
+        public boolean isAvailable() {
+            return true;
+        }
+
+        @Override
+        public void register(Callback callback, int maxReportLatencyUs) {
+            mCallback = callback;
+            mRegistered = true;
+            mMaxReportLatencyUs = maxReportLatencyUs;
+        }
+
+        @Override
+        public void unregister() {
+            mRegistered = false;
+        }
+
+        @Override
+        public void flush() {
+            mFlushCount++;
+        }
+
+        void deliver(long counter, long bootWallMs) {
+            mCallback.onCounter(counter, System.currentTimeMillis(), bootWallMs);
+        }
+
+        void completeFlush() {
+            mCallback.onFlushCompleted();
+        }
+    }
+
+    /** Counts the Fit reads; the test hands the result to the source itself. */
+    private static final class FakeFitReader implements SensorStepSource.FitReader {
+
+        int mReadCount;
+        boolean mRefuse;
+
+        @Override
+        public boolean readSteps(long nowMs) {
+            if (mRefuse) {
+                return false;
+            }
+            mReadCount++;
+            return true;
+        }
+    }
+}
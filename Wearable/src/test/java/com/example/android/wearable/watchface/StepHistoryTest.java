@@ -0,0 +1,120 @@
+/*
+ * Copyright (C) 2014 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.example.android.wearable.watchface;
+
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.File;
+import java.io.IOException;
+
+public class StepHistoryTest {
+
+    private static final long DAY = 17000;
+
+    private File mFile;
+    private StepHistory mHistory;
+
+    @Before
+    public void setUp() throws IOException {
+        mFile = File.createTempFile("step_history", null);
+        mHistory = StepHistory.open(mFile);
+        assertNotNull(mHistory);
+    }
+
+    @After
+    public void tearDown() {
+        mFile.delete();
+    }
+
+    @Test
+    public void firstTotalOfADayIsNotSpread() {
+        assertEquals(0, mHistory.record(3000, DAY, 600));
+        assertEquals(0, mHistory.getMinute(DAY, 600));
+
+        assertEquals(40, mHistory.record(3040, DAY, 601));
+        assertEquals(40, mHistory.getMinute(DAY, 601));
+    }
+
+    @Test
+    public void growthGoesToTheMinuteOfTheRecord() {
+        mHistory.record(0, DAY, 600);
+        mHistory.record(100, DAY, 601);
+        mHistory.record(150, DAY, 601);
+        mHistory.record(400, DAY, 610);
+
+        assertEquals(150, mHistory.getMinute(DAY, 601));
+        assertEquals(250, mHistory.getMinute(DAY, 610));
+    }
+
+    @Test
+    public void implausibleJumpIsABaseAdjustment() {
+        mHistory.record(0, DAY, 600);
+        mHistory.record(100, DAY, 601);
+
+        // A reconciled total arriving a minute later.
+        assertEquals(0, mHistory.record(4000, DAY, 602));
+        assertEquals(0, mHistory.getMinute(DAY, 602));
+
+        // Counting carries on from the adjusted total.
+        assertEquals(30, mHistory.record(4030, DAY, 603));
+        assertEquals(30, mHistory.getMinute(DAY, 603));
+    }
+
+    @Test
+    public void longGapAllowsMoreGrowth() {
+        mHistory.record(0, DAY, 600);
+        // Thirty minutes of brisk walking, reported at once.
+        assertEquals(3000, mHistory.record(3000, DAY, 630));
+    }
+
+    @Test
+    public void decreasingTotalKeepsTheMinutes() {
+        mHistory.record(0, DAY, 600);
+        mHistory.record(100, DAY, 601);
+
+        assertEquals(0, mHistory.record(80, DAY, 602));
+        assertEquals(100, mHistory.getMinute(DAY, 601));
+    }
+
+    @Test
+    public void historySurvivesReopening() {
+        mHistory.record(0, DAY, 600);
+        mHistory.record(100, DAY, 601);
+        mHistory.record(5000, DAY, 602);
+
+        StepHistory reopened = StepHistory.open(mFile);
+        assertEquals(100, reopened.getMinute(DAY, 601));
+        assertEquals(20, reopened.record(5020, DAY, 603));
+    }
+
+    @Test
+    public void newDayReusesTheOldestBlock() {
+        mHistory.record(0, DAY, 600);
+        mHistory.record(100, DAY, 601);
+
+        mHistory.record(0, DAY + StepHistory.DAYS, 0);
+        assertEquals(0, mHistory.getMinute(DAY, 601));
+        assertFalse(mHistory.hasDay(DAY));
+    }
+}
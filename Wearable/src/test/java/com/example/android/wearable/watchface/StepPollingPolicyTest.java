@@ -0,0 +1,98 @@
+/*
+ * Copyright (C) 2014 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.example.android.wearable.watchface;
+
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Test;
+
+public class StepPollingPolicyTest {
+
+    private static final int NOON = 12;
+    private static final long NOW_MS = 1460000000000L;
+
+    private final StepPollingPolicy mPolicy = new StepPollingPolicy();
+
+    @Test
+    public void unchangedTotalsBackOff() {
+        assertEquals(StepPollingPolicy.BASE_INTERVAL_MS, mPolicy.getIntervalMs(NOON));
+        mPolicy.recordSteps(100);
+        assertEquals(StepPollingPolicy.BASE_INTERVAL_MS, mPolicy.getIntervalMs(NOON));
+        mPolicy.recordSteps(100);
+        assertEquals(2 * StepPollingPolicy.BASE_INTERVAL_MS, mPolicy.getIntervalMs(NOON));
+        mPolicy.recordSteps(100);
+        assertEquals(4 * StepPollingPolicy.BASE_INTERVAL_MS, mPolicy.getIntervalMs(NOON));
+    }
+
+    @Test
+    public void backOffIsCapped() {
+        for (int i = 0; i < 20; i++) {
+            mPolicy.recordSteps(100);
+        }
+        assertEquals(StepPollingPolicy.MAX_BACKOFF_INTERVAL_MS, mPolicy.getIntervalMs(NOON));
+    }
+
+    @Test
+    public void changedTotalResetsTheBackOff() {
+        for (int i = 0; i < 5; i++) {
+            mPolicy.recordSteps(100);
+        }
+        mPolicy.recordSteps(101);
+        assertEquals(StepPollingPolicy.BASE_INTERVAL_MS, mPolicy.getIntervalMs(NOON));
+    }
+
+    @Test
+    public void ambientModeSlowsDown() {
+        mPolicy.setAmbient(true);
+        assertEquals(StepPollingPolicy.AMBIENT_INTERVAL_MS, mPolicy.getIntervalMs(NOON));
+        mPolicy.setAmbient(false);
+        assertEquals(StepPollingPolicy.BASE_INTERVAL_MS, mPolicy.getIntervalMs(NOON));
+    }
+
+    @Test
+    public void sleepHoursSlowDown() {
+        assertEquals(StepPollingPolicy.SLEEP_INTERVAL_MS, mPolicy.getIntervalMs(23));
+        assertEquals(StepPollingPolicy.SLEEP_INTERVAL_MS, mPolicy.getIntervalMs(3));
+        assertEquals(StepPollingPolicy.BASE_INTERVAL_MS, mPolicy.getIntervalMs(7));
+        assertEquals(StepPollingPolicy.BASE_INTERVAL_MS, mPolicy.getIntervalMs(22));
+    }
+
+    @Test
+    public void refreshesWithinTheMinimumGapAreSkipped() {
+        assertTrue(mPolicy.shouldRefresh(NOW_MS));
+        mPolicy.recordRefresh(NOW_MS, true);
+
+        assertFalse(mPolicy.shouldRefresh(NOW_MS + StepPollingPolicy.MIN_GAP_MS - 1));
+        assertTrue(mPolicy.shouldRefresh(NOW_MS + StepPollingPolicy.MIN_GAP_MS));
+        assertEquals(1, mPolicy.getIssuedCount());
+        assertEquals(1, mPolicy.getSkippedCount());
+    }
+
+    @Test
+    public void refusedRefreshCountsAsSkipped() {
+        assertTrue(mPolicy.shouldRefresh(NOW_MS));
+        mPolicy.recordRefresh(NOW_MS, false);
+
+        assertEquals(0, mPolicy.getIssuedCount());
+        assertEquals(1, mPolicy.getSkippedCount());
+        // Nothing was issued, so the next refresh need not wait.
+        assertTrue(mPolicy.shouldRefresh(NOW_MS + 1));
+    }
+}
@@ -0,0 +1,113 @@
+/*
+ * Copyright (C) 2014 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.example.android.wearable.watchface;
+
+
+import static org.junit.Assert.assertEquals;
+
+import org.junit.Test;
+
+import java.util.Calendar;
+import java.util.TimeZone;
+import java.util.concurrent.TimeUnit;
+
+public class TimeDecomposerTest {
+
+    private static final long DAY_MS = TimeUnit.DAYS.toMillis(1);
+    private static final TimeZone UTC = TimeZone.getTimeZone("UTC");
+    private static final TimeZone BERLIN = TimeZone.getTimeZone("Europe/Berlin");
+
+    /** 2016-03-27, when Berlin switched to summer time at 01:00 UTC. */
+    private static final long DST_DAY = 16887;
+
+    private final TimeFields mFields = new TimeFields();
+
+    @Test
+    public void decomposesUtc() {
+        long timeMs = 16861 * DAY_MS + TimeUnit.HOURS.toMillis(13)
+                + TimeUnit.MINUTES.toMillis(45) + TimeUnit.SECONDS.toMillis(30) + 999;
+        new TimeDecomposer(UTC).decompose(timeMs, mFields);
+
+        assertEquals(13, mFields.hourOfDay);
+        assertEquals(45, mFields.minute);
+        assertEquals(30, mFields.second);
+        assertEquals(16861, mFields.dayKey);
+        assertEquals(timeMs / 60000, mFields.epochMinute);
+    }
+
+    @Test
+    public void decomposesTimesBeforeTheEpoch() {
+        new TimeDecomposer(UTC).decompose(-1, mFields);
+
+        assertEquals(23, mFields.hourOfDay);
+        assertEquals(59, mFields.minute);
+        assertEquals(59, mFields.second);
+        assertEquals(-1, mFields.dayKey);
+        assertEquals(-1, mFields.epochMinute);
+    }
+
+    @Test
+    public void matchesCalendarAcrossDstTransition() {
+        TimeDecomposer decomposer = new TimeDecomposer(BERLIN);
+        Calendar calendar = Calendar.getInstance(BERLIN);
+        TimeFields expected = new TimeFields();
+        long end = (DST_DAY + 1) * DAY_MS;
+        for (long timeMs = (DST_DAY - 1) * DAY_MS; timeMs < end; timeMs += 7 * 60000 + 13) {
+            calendar.setTimeInMillis(timeMs);
+            expected.setFromCalendar(calendar, timeMs);
+            decomposer.decompose(timeMs, mFields);
+
+            assertEquals("hour at " + timeMs, expected.hourOfDay, mFields.hourOfDay);
+            assertEquals("minute at " + timeMs, expected.minute, mFields.minute);
+            assertEquals("second at " + timeMs, expected.second, mFields.second);
+            assertEquals("day at " + timeMs, expected.dayKey, mFields.dayKey);
+        }
+    }
+
+    @Test
+    public void cachesTheOffsetWithinADay() {
+        TimeDecomposer decomposer = new TimeDecomposer(UTC);
+        long start = 16861 * DAY_MS;
+        for (long timeMs = start; timeMs < start + DAY_MS / 2; timeMs += 1000) {
+            decomposer.decompose(timeMs, mFields);
+        }
+        assertEquals(1, decomposer.getRefreshCount());
+    }
+
+    @Test
+    public void setTimeZoneDropsTheCachedOffset() {
+        TimeDecomposer decomposer = new TimeDecomposer(UTC);
+        long timeMs = 16861 * DAY_MS + TimeUnit.HOURS.toMillis(12);
+        decomposer.decompose(timeMs, mFields);
+        assertEquals(12, mFields.hourOfDay);
+
+        decomposer.setTimeZone(TimeZone.getTimeZone("GMT+05:00"));
+        decomposer.decompose(timeMs, mFields);
+        assertEquals(17, mFields.hourOfDay);
+        assertEquals(2, decomposer.getRefreshCount());
+    }
+
+    @Test
+    public void nextLocalMidnight() {
+        long timeMs = 16861 * DAY_MS + TimeUnit.HOURS.toMillis(13);
+        assertEquals(16862 * DAY_MS, new TimeDecomposer(UTC).nextLocalMidnight(timeMs));
+
+        // Berlin is at UTC+1 in winter.
+        long berlinMidnight = 16862 * DAY_MS - TimeUnit.HOURS.toMillis(1);
+        assertEquals(berlinMidnight, new TimeDecomposer(BERLIN).nextLocalMidnight(timeMs));
+    }
+}